@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils;
+import org.jetbrains.kotlin.testframework.utils.TestJavaProject;
+
+/**
+ * Workspace project with generated Kotlin sources shared by all benchmarks. Sources are produced in memory, so
+ * the size of the fixture is controlled only by the {@code kotlin.benchmarks.files} system property.
+ */
+public class BenchmarkFixture {
+    public static final String PROJECT_NAME = "kotlinBenchmarks";
+    public static final String FILE_COUNT_PROPERTY = "kotlin.benchmarks.files";
+    
+    // The same marker is inserted by the completion processor at the caret position
+    public static final String COMPLETION_MARKER = "KotlinRulezzz";
+    
+    private final TestJavaProject testProject;
+    private final List<IFile> sourceFiles;
+    private final List<String> sourceTexts;
+    private final IFile completionFile;
+    
+    private BenchmarkFixture(TestJavaProject testProject, List<IFile> sourceFiles, List<String> sourceTexts,
+            IFile completionFile) {
+        this.testProject = testProject;
+        this.sourceFiles = sourceFiles;
+        this.sourceTexts = sourceTexts;
+        this.completionFile = completionFile;
+    }
+    
+    public static BenchmarkFixture create() {
+        int fileCount = Integer.getInteger(FILE_COUNT_PROPERTY, 50);
+        
+        TestJavaProject testProject = new TestJavaProject(PROJECT_NAME);
+        try {
+            testProject.addKotlinRuntime();
+            
+            List<IFile> files = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < fileCount; i++) {
+                String text = generateSource(i);
+                files.add(testProject.createSourceFile(packageName(i), fileName(i), text));
+                texts.add(text);
+            }
+            
+            IFile completionFile = testProject.createSourceFile("bench.completion", "Completion.kt",
+                    generateCompletionSource());
+            
+            KotlinTestUtils.joinBuildThread();
+            
+            return new BenchmarkFixture(testProject, Collections.unmodifiableList(files),
+                    Collections.unmodifiableList(texts), completionFile);
+        } catch (CoreException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    public IProject getProject() {
+        return testProject.getProject();
+    }
+    
+    public TestJavaProject getTestProject() {
+        return testProject;
+    }
+    
+    public KotlinEnvironment getEnvironment() {
+        return testProject.getKotlinEnvironment();
+    }
+    
+    public List<IFile> getSourceFiles() {
+        return sourceFiles;
+    }
+    
+    public List<String> getSourceTexts() {
+        return sourceTexts;
+    }
+    
+    public IFile getCompletionFile() {
+        return completionFile;
+    }
+    
+    public List<KtFile> getParsedFiles() {
+        List<KtFile> result = new ArrayList<>(sourceFiles.size());
+        for (IFile file : sourceFiles) {
+            result.add(KotlinPsiManager.getKotlinParsedFile(file));
+        }
+        return result;
+    }
+    
+    public void dispose() {
+        try {
+            testProject.getProject().delete(true, true, null);
+        } catch (CoreException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    public static String packageName(int index) {
+        return "bench.p" + index;
+    }
+    
+    public static String fileName(int index) {
+        return "File" + index + ".kt";
+    }
+    
+    private static String generateSource(int index) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package ").append(packageName(index)).append("\n\n");
+        if (index > 0) {
+            builder.append("import bench.p0.Model0\n");
+            builder.append("import ").append(packageName(index - 1)).append(".*\n\n");
+        }
+        
+        builder.append("data class Model").append(index).append("(val id: Int, val name: String) {\n")
+               .append("    fun describe(): String = \"$name#$id\"\n")
+               .append("}\n\n");
+        
+        builder.append("interface Service").append(index).append(" {\n")
+               .append("    fun process(model: Model").append(index).append("): Int\n")
+               .append("}\n\n");
+        
+        builder.append("class Service").append(index).append("Impl : Service").append(index).append(" {\n")
+               .append("    override fun process(model: Model").append(index).append("): Int {\n")
+               .append("        val base = model.id * 31 + model.name.length\n")
+               .append("        return base + helper").append(index).append("(model.describe())\n")
+               .append("    }\n")
+               .append("}\n\n");
+        
+        builder.append("fun helper").append(index).append("(value: String): Int = value.fold(0) { acc, c -> acc + c.code }\n\n");
+        
+        builder.append("fun Model").append(index).append(".extension").append(index).append("(): List<String> =\n")
+               .append("    listOf(name, describe()).map { it.uppercase() }\n\n");
+        
+        builder.append("fun compute").append(index).append("(model: Model").append(index).append("): Int {\n")
+               .append("    val service: Service").append(index).append(" = Service").append(index).append("Impl()\n");
+        if (index > 0) {
+            int previous = index - 1;
+            builder.append("    val previous = compute").append(previous).append("(Model").append(previous)
+                   .append("(model.id, model.name))\n")
+                   .append("    return service.process(model) + previous + model.extension").append(index).append("().size\n");
+        } else {
+            builder.append("    return service.process(model) + model.extension").append(index).append("().size\n");
+        }
+        builder.append("}\n");
+        
+        if (index > 0) {
+            builder.append("\nfun origin").append(index).append("(): Model0 = Model0(").append(index).append(", \"origin\")\n");
+        }
+        
+        return builder.toString();
+    }
+    
+    private static String generateCompletionSource() {
+        return "package bench.completion\n\n" +
+               "import bench.p0.Model0\n\n" +
+               "fun memberCompletion(model: Model0) {\n" +
+               "    model.de" + COMPLETION_MARKER + "\n" +
+               "}\n\n" +
+               "fun topLevelCompletion() {\n" +
+               "    hel" + COMPLETION_MARKER + "\n" +
+               "}\n";
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jdt.core.IJavaProject;
+import org.jetbrains.kotlin.container.ComponentProvider;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
+import org.jetbrains.kotlin.core.resolve.KotlinResolutionFacade;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtSimpleNameExpression;
+import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter;
+import org.jetbrains.kotlin.ui.editors.codeassist.KotlinBasicCompletionProposal;
+import org.jetbrains.kotlin.ui.editors.completion.KotlinCompletionUtils;
+import org.jetbrains.kotlin.ui.editors.completion.KotlinReferenceVariantsHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.intellij.psi.util.PsiTreeUtil;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CompletionBenchmark {
+    @Param({ "model.de", "hel" })
+    public String completedText;
+    
+    private BenchmarkFixture fixture;
+    private KtFile ktFile;
+    private KtSimpleNameExpression expression;
+    private String prefix;
+    private KotlinReferenceVariantsHelper helper;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = BenchmarkFixture.create();
+        
+        IFile file = fixture.getCompletionFile();
+        ktFile = KotlinPsiManager.getKotlinParsedFile(file);
+        
+        int offset = ktFile.getText().indexOf(completedText + BenchmarkFixture.COMPLETION_MARKER) + completedText.length();
+        expression = PsiTreeUtil.getParentOfType(ktFile.findElementAt(offset), KtSimpleNameExpression.class);
+        prefix = completedText.substring(completedText.lastIndexOf('.') + 1);
+        
+        AnalysisResultWithProvider analysisResult = KotlinAnalyzer.INSTANCE.analyzeFile(ktFile);
+        ComponentProvider componentProvider = analysisResult.getComponentProvider();
+        if (componentProvider == null) {
+            throw new IllegalStateException("Completion fixture was not analyzed");
+        }
+        
+        helper = new KotlinReferenceVariantsHelper(
+                analysisResult.getAnalysisResult().getBindingContext(),
+                new KotlinResolutionFacade(file, componentProvider, analysisResult.getAnalysisResult().getModuleDescriptor()),
+                analysisResult.getAnalysisResult().getModuleDescriptor(),
+                descriptor -> true);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+    
+    @Benchmark
+    public Collection<KotlinBasicCompletionProposal> collectVariants() {
+        IJavaProject javaProject = fixture.getTestProject().getJavaProject();
+        return helper.getReferenceVariants(
+                expression,
+                DescriptorKindFilter.ALL,
+                name -> KotlinCompletionUtils.INSTANCE.applicableNameFor(prefix, name),
+                javaProject,
+                ktFile,
+                fixture.getCompletionFile(),
+                prefix);
+    }
+}
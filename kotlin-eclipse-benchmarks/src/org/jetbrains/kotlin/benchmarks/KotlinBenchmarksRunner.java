@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the headless test runtime. Benchmarks are executed in the OSGi framework started by the test
+ * harness, so forking is disabled: a forked JVM would not see the Kotlin and Eclipse bundles.
+ * <p>
+ * Results are written in JMH JSON format to the file named by {@code kotlin.benchmarks.result}, which makes them
+ * easy to compare between commits with any JMH result viewer.
+ */
+public class KotlinBenchmarksRunner {
+    public static final String INCLUDE_PROPERTY = "kotlin.benchmarks.include";
+    public static final String RESULT_PROPERTY = "kotlin.benchmarks.result";
+    
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        File resultFile = new File(System.getProperty(RESULT_PROPERTY, "jmh-result.json"));
+        File resultDirectory = resultFile.getAbsoluteFile().getParentFile();
+        if (resultDirectory != null) {
+            resultDirectory.mkdirs();
+        }
+        
+        Options options = new OptionsBuilder()
+                .include(KotlinBenchmarksRunner.class.getPackage().getName() + "." + System.getProperty(INCLUDE_PROPERTY, ".*"))
+                .forks(0)
+                .shouldFailOnError(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getPath())
+                .build();
+        
+        Assert.assertFalse("No benchmarks were run", new Runner(options).run().isEmpty());
+    }
+}
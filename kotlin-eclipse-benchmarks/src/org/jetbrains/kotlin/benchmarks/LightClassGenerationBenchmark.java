@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration;
+import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LightClassGenerationBenchmark {
+    @Param({ "Model0.class", "File0Kt.class" })
+    public String requestedClass;
+    
+    private BenchmarkFixture fixture;
+    private AnalysisResult analysisResult;
+    private List<KtFile> files;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = BenchmarkFixture.create();
+        
+        List<KtFile> parsedFiles = fixture.getParsedFiles();
+        analysisResult = EclipseAnalyzerFacadeForJVM.INSTANCE.analyzeSources(fixture.getEnvironment(), parsedFiles)
+                .getAnalysisResult();
+        files = Collections.singletonList(parsedFiles.get(0));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+    
+    @Benchmark
+    public GenerationState buildLightClasses() {
+        return KotlinLightClassGeneration.INSTANCE.buildLightClasses(analysisResult, fixture.getProject(), files,
+                requestedClass);
+    }
+}
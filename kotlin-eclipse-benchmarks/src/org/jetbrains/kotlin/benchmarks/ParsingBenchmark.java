@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParsingBenchmark {
+    private BenchmarkFixture fixture;
+    private IFile editedFile;
+    private String originalText;
+    private String editedText;
+    private boolean edited;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = BenchmarkFixture.create();
+        
+        editedFile = fixture.getSourceFiles().get(0);
+        originalText = fixture.getSourceTexts().get(0);
+        editedText = originalText.replace("model.id * 31", "model.id * 37");
+        KotlinPsiManager.getKotlinFileIfExist(editedFile, originalText);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+    
+    @Benchmark
+    public void parseAllFiles(Blackhole blackhole) {
+        List<IFile> files = fixture.getSourceFiles();
+        List<String> texts = fixture.getSourceTexts();
+        for (int i = 0; i < files.size(); i++) {
+            blackhole.consume(KotlinPsiManager.INSTANCE.parseText(texts.get(i), files.get(i)));
+        }
+    }
+    
+    @Benchmark
+    public KtFile reparseEditedFile() {
+        edited = !edited;
+        return KotlinPsiManager.getKotlinFileIfExist(editedFile, edited ? editedText : originalText);
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.ui.search.ISearchRequestor;
+import org.eclipse.jdt.ui.search.QuerySpecification;
+import org.eclipse.search.ui.text.Match;
+import org.jetbrains.kotlin.psi.KtClass;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.ui.commands.findReferences.KotlinFindReferencesActionKt;
+import org.jetbrains.kotlin.ui.search.KotlinQueryParticipant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.intellij.psi.util.PsiTreeUtil;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SearchBenchmark {
+    private BenchmarkFixture fixture;
+    private QuerySpecification querySpecification;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = BenchmarkFixture.create();
+        
+        KtFile ktFile = fixture.getParsedFiles().get(0);
+        KtClass modelClass = null;
+        for (KtClass ktClass : PsiTreeUtil.findChildrenOfType(ktFile, KtClass.class)) {
+            if ("Model0".equals(ktClass.getName())) {
+                modelClass = ktClass;
+            }
+        }
+        
+        querySpecification = KotlinFindReferencesActionKt.createQuerySpecification(modelClass,
+                SearchEngine.createWorkspaceScope(), "", IJavaSearchConstants.REFERENCES);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.dispose();
+    }
+    
+    @Benchmark
+    public int findReferences() {
+        CountingRequestor requestor = new CountingRequestor();
+        new KotlinQueryParticipant().search(requestor, querySpecification, new NullProgressMonitor());
+        return requestor.count;
+    }
+    
+    private static class CountingRequestor implements ISearchRequestor {
+        int count;
+        
+        @Override
+        public void reportMatch(Match match) {
+            count++;
+        }
+    }
+}
@@ -20,8 +20,12 @@ import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Plugin;
 import org.eclipse.core.runtime.preferences.DefaultScope;
+import org.eclipse.jdt.core.JavaCore;
+import org.jetbrains.kotlin.core.filesystem.PersistentLightClassCache;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.core.model.KotlinIdentifierIndex;
 import org.jetbrains.kotlin.core.model.KotlinRefreshProjectListener;
+import org.jetbrains.kotlin.core.model.KotlinSourceRootsCache;
 import org.jetbrains.kotlin.core.preferences.KotlinProperties;
 import org.osgi.framework.BundleContext;
 
@@ -47,6 +51,11 @@ public class Activator extends Plugin {
 		        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE | IResourceChangeEvent.PRE_BUILD);
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinRefreshProjectListener.INSTANCE,
 		        IResourceChangeEvent.PRE_REFRESH);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinIdentifierIndex.INSTANCE,
+		        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(PersistentLightClassCache.INSTANCE,
+		        IResourceChangeEvent.PRE_BUILD | IResourceChangeEvent.POST_CHANGE);
+		JavaCore.addElementChangedListener(KotlinSourceRootsCache.INSTANCE);
 		
 		KotlinProperties.init();
 	}
@@ -55,6 +64,11 @@ public class Activator extends Plugin {
     public void stop(BundleContext bundleContext) throws Exception {
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinAnalysisProjectCache.INSTANCE);
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinRefreshProjectListener.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinIdentifierIndex.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(PersistentLightClassCache.INSTANCE);
+	    JavaCore.removeElementChangedListener(KotlinSourceRootsCache.INSTANCE);
+	    
+	    KotlinIdentifierIndex.INSTANCE.save();
 	    
 		plugin = null;
 	}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.builder
+
+import com.intellij.lang.ASTFactory
+import com.intellij.lang.ASTNode
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.util.Computable
+import com.intellij.openapi.util.TextRange
+import com.intellij.psi.impl.source.tree.TreeElement
+import com.intellij.psi.tree.IReparseableElementType
+import com.intellij.testFramework.LightVirtualFile
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.idea.KotlinLanguage
+import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.atomic.AtomicInteger
+
+data class ReparseStatistics(val incrementalReparses: Int, val fullReparses: Int)
+
+/**
+ * Applies text changes to already parsed files by reparsing the smallest reparseable element
+ * (block or lambda) containing the changed range. The element is replaced in the tree of the file under
+ * the write action, so the file and other parts of the tree keep their identity.
+ */
+internal object KotlinIncrementalReparser {
+    private val incrementalReparses = AtomicInteger()
+    private val fullReparses = AtomicInteger()
+
+    val statistics: ReparseStatistics
+        get() = ReparseStatistics(incrementalReparses.get(), fullReparses.get())
+
+    /**
+     * @return [currentFile] with changed tree if it was reparsed incrementally, result of [fullReparse] otherwise
+     */
+    fun reparse(currentFile: KtFile, newText: String, fullReparse: () -> KtFile?): KtFile? {
+        val reparsed = try {
+            // Concurrent reparses of the same file are serialized, the later one finds the text already changed
+            synchronized(currentFile) {
+                ApplicationManager.getApplication().runWriteAction(Computable {
+                    tryReparseIncrementally(currentFile, newText)
+                })
+            }
+        } catch (e: Exception) {
+            KotlinLogger.logError("Incremental reparse of ${currentFile.name} failed", e)
+            false
+        }
+
+        if (reparsed) {
+            incrementalReparses.incrementAndGet()
+            return currentFile
+        }
+
+        fullReparses.incrementAndGet()
+        return fullReparse()
+    }
+
+    private fun tryReparseIncrementally(file: KtFile, newText: String): Boolean {
+        val virtualFile = file.virtualFile as? LightVirtualFile ?: return false
+        val oldText = file.text
+
+        val changedRange = findChangedRange(oldText, newText) ?: return true
+        val node = findReparseableNode(file.node, changedRange) ?: return false
+        val type = node.elementType as IReparseableElementType
+
+        val nodeRange = node.textRange
+        val newNodeText = newText.substring(
+            nodeRange.startOffset,
+            nodeRange.endOffset + newText.length - oldText.length
+        )
+        if (!type.isParsable(node.treeParent, newNodeText, KotlinLanguage.INSTANCE, file.project)) return false
+
+        val newNode = type.createNode(newNodeText) ?: ASTFactory.lazy(type, newNodeText)
+        (node as TreeElement).rawReplaceWithList(newNode as TreeElement)
+        file.subtreeChanged()
+        virtualFile.setContent(null, newText, false)
+
+        // Only the replaced element is compared, the rest of the tree has not changed
+        if (newNode.textLength != newNodeText.length || file.textLength != newText.length) {
+            KotlinLogger.logWarning("Incremental reparse of ${file.name} produced unexpected text")
+            return false
+        }
+
+        return true
+    }
+
+    private fun findChangedRange(oldText: String, newText: String): TextRange? {
+        val prefix = oldText.commonPrefixWith(newText).length
+        if (prefix == oldText.length && prefix == newText.length) return null
+
+        val maxSuffix = minOf(oldText.length, newText.length) - prefix
+        var suffix = 0
+        while (suffix < maxSuffix && oldText[oldText.length - suffix - 1] == newText[newText.length - suffix - 1]) {
+            suffix++
+        }
+
+        return TextRange(prefix, oldText.length - suffix)
+    }
+
+    private fun findReparseableNode(root: ASTNode, changedRange: TextRange): ASTNode? {
+        var node: ASTNode? = root.findLeafElementAt(changedRange.startOffset)
+        while (node != null && node !== root) {
+            val range = node.textRange
+            // Boundaries of the element (e.g. braces of a block) must stay untouched
+            if (node.elementType is IReparseableElementType &&
+                range.startOffset < changedRange.startOffset && changedRange.endOffset < range.endOffset
+            ) {
+                return node
+            }
+
+            node = node.treeParent
+        }
+
+        return null
+    }
+}
@@ -30,7 +30,6 @@ import org.eclipse.core.resources.IResourceDelta
 import org.eclipse.core.resources.ResourcesPlugin
 import org.eclipse.core.runtime.CoreException
 import org.eclipse.core.runtime.Path
-import org.eclipse.jdt.core.IClasspathEntry
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jface.text.IDocument
@@ -48,7 +47,6 @@ import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.scripting.definitions.ScriptDefinitionProvider
 import java.io.File
 import java.util.Collections
-import java.util.HashSet
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.script.experimental.host.FileScriptSource
 
@@ -57,6 +55,8 @@ interface PsiFilesStorage {
     
     fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile
     
+    fun getCachedPsiFile(file: IFile): KtFile?
+    
     fun isApplicable(file: IFile): Boolean
     
     fun removeFile(file: IFile)
@@ -77,13 +77,17 @@ private class ScriptsFilesStorage : PsiFilesStorage {
         
         val currentParsedFile = getPsiFile(file)
         if (currentParsedFile.getText() != sourceCodeWithouCR) {
-            val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
+            val jetFile = KotlinIncrementalReparser.reparse(currentParsedFile, sourceCodeWithouCR) {
+                KotlinPsiManager.parseText(sourceCodeWithouCR, file)
+            }!!
             cachedKtFiles.put(file, jetFile)
         }
         
         return getPsiFile(file)
     }
 
+    override fun getCachedPsiFile(file: IFile): KtFile? = cachedKtFiles[file]
+
     override fun isApplicable(file: IFile): Boolean =
             EclipseScriptDefinitionProvider.isScript(FileScriptSource(file.asFile))
 
@@ -92,81 +96,94 @@ private class ScriptsFilesStorage : PsiFilesStorage {
     }
 }
 
+/**
+ * Reads are lock-free. Changes of files of a project are serialized by the lock of this project, so the set of files
+ * of a project is published only when it is complete and a parsed file is cached only while the file is in the set.
+ *
+ * A changed file is reparsed incrementally in place under the write action (see [KotlinIncrementalReparser]),
+ * so the cached [KtFile] and its untouched subtrees keep their identity. If that is not possible, the file is parsed
+ * into a new [KtFile] which replaces the cached one.
+ */
 private class ProjectSourceFiles : PsiFilesStorage {
     companion object {
         @JvmStatic
         fun isKotlinFile(file: IFile): Boolean = KotlinFileType.INSTANCE.getDefaultExtension() == file.fileExtension
     }
     
-    private val projectFiles = hashMapOf<IProject, HashSet<IFile>>()
-    private val cachedKtFiles = hashMapOf<IFile, KtFile>()
-    private val mapOperationLock = Any()
+    private val projectFiles = ConcurrentHashMap<IProject, MutableSet<IFile>>()
+    private val cachedKtFiles = ConcurrentHashMap<IFile, KtFile>()
+    private val projectLocks = ConcurrentHashMap<IProject, Any>()
+    
+    private fun lockFor(project: IProject): Any = projectLocks.computeIfAbsent(project) { Any() }
     
     override fun getPsiFile(eclipseFile: IFile): KtFile {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(eclipseFile.getProject())
+        updateProjectPsiSourcesIfNeeded(eclipseFile.getProject())
 
-            assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
+        assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
 
-            return cachedKtFiles.getOrPut(eclipseFile) {
-                KotlinPsiManager.parseFile(eclipseFile) ?: throw IllegalStateException("Can't parse file $eclipseFile")
-            }
+        cachedKtFiles[eclipseFile]?.let { return it }
+        
+        // Parsing may need to create the environment, so it is done without holding the lock
+        val parsedFile = KotlinPsiManager.parseFile(eclipseFile) ?: throw IllegalStateException("Can't parse file $eclipseFile")
+        synchronized (lockFor(eclipseFile.project)) {
+            if (!existsInProjectSources(eclipseFile, false)) return parsedFile
+            
+            return cachedKtFiles.putIfAbsent(eclipseFile, parsedFile) ?: parsedFile
         }
     }
     
     override fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile {
-        synchronized (mapOperationLock) {
-            updatePsiFile(file, expectedSourceCode)
-            return getPsiFile(file)
+        val sourceCodeWithoutCR = StringUtilRt.convertLineSeparators(expectedSourceCode)
+        
+        // Parsing is done without holding the lock, a fully reparsed file is cached only if no other thread replaced
+        // or removed the file meanwhile
+        while (true) {
+            val currentParsedFile = getPsiFile(file)
+            if (currentParsedFile.text == sourceCodeWithoutCR) return currentParsedFile
+            
+            val jetFile = KotlinIncrementalReparser.reparse(currentParsedFile, sourceCodeWithoutCR) {
+                KotlinPsiManager.parseText(sourceCodeWithoutCR, file)
+            }!!
+            if (cachedKtFiles.replace(file, currentParsedFile, jetFile) || cachedKtFiles[file] == null) return jetFile
         }
     }
     
+    override fun getCachedPsiFile(file: IFile): KtFile? = cachedKtFiles[file]
+    
     override fun isApplicable(file: IFile): Boolean = existsInProjectSources(file)
 
     fun existsInProjectSources(file: IFile, update: Boolean = true): Boolean {
-        synchronized (mapOperationLock) {
-            return file.project?.let {
-                if (update) {
-                    updateProjectPsiSourcesIfNeeded(it)
-                }
-                projectFiles[it]?.contains(file)
-            } ?: false
-        }
+        return file.project?.let {
+            if (update) {
+                updateProjectPsiSourcesIfNeeded(it)
+            }
+            projectFiles[it]?.contains(file)
+        } ?: false
     }
     
-    fun containsProject(project: IProject): Boolean {
-        return synchronized (mapOperationLock) {
-            projectFiles.containsKey(project)
-        }
-    }
+    fun containsProject(project: IProject): Boolean = projectFiles.containsKey(project)
     
     fun getFilesByProject(project: IProject): Set<IFile> {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(project)
-            
-            if (projectFiles.containsKey(project)) {
-                return Collections.unmodifiableSet(projectFiles[project])
-            }
-            
-            return emptySet()
-        }
+        updateProjectPsiSourcesIfNeeded(project)
+        
+        return projectFiles[project]?.let { Collections.unmodifiableSet(it) } ?: emptySet()
     }
     
     fun addFile(file: IFile) {
-        synchronized (mapOperationLock) {
+        synchronized (lockFor(file.project)) {
             assert(KotlinNature.hasKotlinNature(file.getProject()),
                     { "Project (" + file.getProject().getName() + ") does not have Kotlin nature" })
             
             assert(!existsInProjectSources(file, false), { "File(" + file.getName() + ") is already added" })
             
             projectFiles
-                    .getOrPut(file.project) { hashSetOf() }
+                    .getOrPut(file.project) { ConcurrentHashMap.newKeySet<IFile>() }
                     .add(file)
         }
     }
     
     override fun removeFile(file: IFile) {
-        synchronized (mapOperationLock) {
+        synchronized (lockFor(file.project)) {
             assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
             
             cachedKtFiles.remove(file)
@@ -175,7 +192,7 @@ private class ProjectSourceFiles : PsiFilesStorage {
     }
     
     fun addProject(project: IProject) {
-        synchronized (mapOperationLock) {
+        synchronized (lockFor(project)) {
             if (ProjectUtils.isAccessibleKotlinProject(project)) {
                 addFilesToParse(JavaCore.create(project))
             }
@@ -183,29 +200,43 @@ private class ProjectSourceFiles : PsiFilesStorage {
     }
     
     fun removeProject(project: IProject) {
-        synchronized (mapOperationLock) {
-            val files = getFilesByProject(project)
-            
-            projectFiles.remove(project)
+        synchronized (lockFor(project)) {
+            val files = projectFiles.remove(project) ?: return
             for (file in files) {
                 cachedKtFiles.remove(file)
             }
         }
     }
     
+    // Parsed files which stay in the source folders of the project are kept
+    fun refreshProject(project: IProject) {
+        synchronized (lockFor(project)) {
+            val oldFiles = projectFiles[project] ?: return
+            if (ProjectUtils.isAccessibleKotlinProject(project)) {
+                addFilesToParse(JavaCore.create(project))
+            } else {
+                projectFiles.remove(project)
+            }
+            
+            val newFiles = projectFiles[project].orEmpty()
+            oldFiles.filter { it !in newFiles }.forEach { cachedKtFiles.remove(it) }
+        }
+    }
+    
     fun addFilesToParse(javaProject: IJavaProject) {
         try {
-            projectFiles.put(javaProject.getProject(), HashSet<IFile>())
-            
+            val files = ConcurrentHashMap.newKeySet<IFile>()
             for (sourceFolder in javaProject.sourceFolders) {
                 sourceFolder.resource.accept { resource ->
                     if (resource is IFile && isKotlinFile(resource)) {
-                        addFile(resource)
+                        files.add(resource)
                     }
                     
                     true
                 }
             }
+            
+            projectFiles.put(javaProject.getProject(), files)
         } catch (e: CoreException) {
             KotlinLogger.logError(e)
         }
@@ -216,8 +247,10 @@ private class ProjectSourceFiles : PsiFilesStorage {
             return
         }
         
-        if (ProjectUtils.isAccessibleKotlinProject(project)) {
-            updateProjectPsiSources(project, IResourceDelta.ADDED)
+        synchronized (lockFor(project)) {
+            if (!projectFiles.containsKey(project) && ProjectUtils.isAccessibleKotlinProject(project)) {
+                updateProjectPsiSources(project, IResourceDelta.ADDED)
+            }
         }
     }
     
@@ -232,34 +265,22 @@ private class ProjectSourceFiles : PsiFilesStorage {
         cachedKtFiles.clear()
     }
     
-    private fun updatePsiFile(file: IFile, sourceCode: String) {
-        val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(sourceCode)
-        
-        synchronized (mapOperationLock) {
-            assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
-            
-            val currentParsedFile = getPsiFile(file)
-            if (!currentParsedFile.getText().equals(sourceCodeWithouCR)) {
-                val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
-                cachedKtFiles.put(file, jetFile)
-            }
-        }
-    }
-
     fun addFilesIfNotPresent(project: IJavaProject) {
-        try {
-            with(projectFiles.getOrPut(project.project) { hashSetOf() }) {
-                for (sourceFolder in project.sourceFolders) {
-                    sourceFolder.resource.accept { resource ->
-                        if (resource is IFile && isKotlinFile(resource) && !contains(resource)) {
-                            add(resource)
+        synchronized (lockFor(project.project)) {
+            try {
+                with(projectFiles.getOrPut(project.project) { ConcurrentHashMap.newKeySet<IFile>() }) {
+                    for (sourceFolder in project.sourceFolders) {
+                        sourceFolder.resource.accept { resource ->
+                            if (resource is IFile && isKotlinFile(resource) && !contains(resource)) {
+                                add(resource)
+                            }
+                            true
                         }
-                        true
                     }
                 }
+            } catch (e: CoreException) {
+                KotlinLogger.logError(e)
             }
-        } catch (e: CoreException) {
-            KotlinLogger.logError(e)
         }
     }
 }
@@ -272,6 +293,11 @@ object KotlinPsiManager {
         return storage(file).getPsiFile(file)
     }
     
+    // Returns the file only if it was already parsed, e.g. because it is open in an editor
+    fun getCachedParsedFile(file: IFile): KtFile? {
+        return applicableStorage(file)?.getCachedPsiFile(file)
+    }
+    
     private fun isApplicable(file: IFile): Boolean {
         return applicableStorage(file)?.isApplicable(file) ?: false
     }
@@ -296,6 +322,10 @@ object KotlinPsiManager {
         projectSourceFiles.updateProjectPsiSources(project, IResourceDelta.REMOVED)
     }
 
+    fun refreshProjectSourceFiles(project: IProject) {
+        projectSourceFiles.refreshProject(project)
+    }
+
     fun getFilesByProject(project: IProject): Set<IFile> {
         return projectSourceFiles.getFilesByProject(project)
     }
@@ -348,11 +378,7 @@ object KotlinPsiManager {
             return false
         }
         
-        val classpathEntries = javaProject.getRawClasspath()
-        val resourceRoot = resource.getFullPath().segment(1)
-        return classpathEntries.any { classpathEntry ->
-            classpathEntry.entryKind == IClasspathEntry.CPE_SOURCE && resourceRoot == classpathEntry.path.segment(1)
-        }
+        return KotlinSourceRootsCache.isInSourceRoot(resource, javaProject)
     }
     
     fun parseFile(file: IFile): KtFile? {
@@ -406,6 +432,8 @@ object KotlinPsiManager {
         }
     }
 
+    fun getReparseStatistics(): ReparseStatistics = KotlinIncrementalReparser.statistics
+
     @JvmStatic
     fun commitFile(file: IFile, document: IDocument) {
         getKotlinFileIfExist(file, document.get())
@@ -21,15 +21,20 @@ import org.jetbrains.kotlin.core.launch.KotlinCLICompiler
 import org.jetbrains.kotlin.core.model.KOTLIN_COMPILER_PATH
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.preferences.CompilerPlugin
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
 import org.jetbrains.kotlin.core.utils.DependencyResolverException
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.incremental.makeIncrementally
 import java.io.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 object KotlinCompiler {
 
     private fun compileKotlinFiles(
             javaProject: IJavaProject,
+            parallelism: Int,
             compilation: (IJavaProject, File, List<File>) -> KotlinCompilerResult
     ): KotlinCompilerResult =
             ProjectUtils.getSrcOutDirectories(javaProject)
@@ -44,9 +49,9 @@ object KotlinCompiler {
                         }?.distinct()?.forEach(File::delete)
                         tempFile?.delete()
                         out.walkTopDown().filter { it.extension == "kt" }.forEach { it.delete() }
-                    }.map { (out, sources) ->
-                        compilation(javaProject, out, sources)
-                    }.fold(KotlinCompilerResult(true, CompilerOutputData())) { previous, current ->
+                    }.toList()
+                    .let { groups -> compileGroups(javaProject, groups, parallelism, compilation) }
+                    .fold(KotlinCompilerResult(true, CompilerOutputData())) { previous, current ->
                         KotlinCompilerResult(previous.result and current.result, CompilerOutputData().apply {
                             previous.compilerOutput.list.union(current.compilerOutput.list).forEach {
                                 add(it.messageSeverity, it.message, it.messageLocation)
@@ -54,17 +59,53 @@ object KotlinCompiler {
                         })
                     }
 
+    // Results are returned in the order of groups, so merged messages do not depend on scheduling
+    private fun compileGroups(
+            javaProject: IJavaProject,
+            groups: List<Pair<File, List<File>>>,
+            parallelism: Int,
+            compilation: (IJavaProject, File, List<File>) -> KotlinCompilerResult
+    ): List<KotlinCompilerResult> {
+        val threadsCount = minOf(parallelism, groups.size)
+        if (threadsCount <= 1) {
+            return groups.map { (out, sources) -> compilation(javaProject, out, sources) }
+        }
+
+        val executor = Executors.newFixedThreadPool(threadsCount) { runnable ->
+            Thread(runnable, "Kotlin compiler (${javaProject.elementName})").apply { isDaemon = true }
+        }
+        try {
+            return groups
+                    .map { (out, sources) -> executor.submit(Callable { compilation(javaProject, out, sources) }) }
+                    .map { future ->
+                        try {
+                            future.get()
+                        } catch (e: ExecutionException) {
+                            throw e.cause ?: e
+                        }
+                    }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun getCompilerParallelism(): Int =
+            KotlinPerformanceProperties.workspaceInstance.compilerParallelism
+                    .takeIf { it > 0 }
+                    ?: Runtime.getRuntime().availableProcessors()
+
     @JvmStatic
     fun compileKotlinFiles(javaProject: IJavaProject): KotlinCompilerResult =
-            compileKotlinFiles(javaProject) { project, path, sources ->
+            compileKotlinFiles(javaProject, getCompilerParallelism()) { project, path, sources ->
                 execKotlinCompiler(configureCompilerArguments(project, path.absolutePath, sources))
             }
 
+    // Output folders of one project share the incremental caches directory, so they are compiled one by one
     @JvmStatic
     fun compileIncrementallyFiles(
             javaProject: IJavaProject
     ): KotlinCompilerResult =
-            compileKotlinFiles(javaProject) { project, path, sources ->
+            compileKotlinFiles(javaProject, 1) { project, path, sources ->
                 execIncrementalKotlinCompiler(project, path.absoluteFile, sources)
             }
 
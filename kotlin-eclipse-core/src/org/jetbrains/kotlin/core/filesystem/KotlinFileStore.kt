@@ -49,13 +49,21 @@ public class KotlinFileStore(file: File) : LocalFile(file) {
             throw CoreException(Status.CANCEL_STATUS)
         }
         
-        val lightClass = KotlinLightClassManager.getInstance(project).getCachedLightClass(file)
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        val lightClass = lightClassManager.getCachedLightClass(file)
         if (lightClass != null) {
             return ByteArrayInputStream(lightClass)
         }
 
-        val jetFiles = KotlinLightClassManager.getInstance(project).getSourceFiles(file)
+        val jetFiles = lightClassManager.getSourceFiles(file)
         if (jetFiles.isNotEmpty()) {
+            val persistentKey = PersistentLightClassCache.computeKey(project, file, jetFiles)
+            val persistedLightClass = persistentKey?.let { PersistentLightClassCache.get(it) }
+            if (persistedLightClass != null) {
+                lightClassManager.cacheLightClass(file, persistedLightClass)
+                return ByteArrayInputStream(persistedLightClass)
+            }
+
             val analysisResult = KotlinAnalyzer.analyzeFiles(jetFiles).analysisResult
 
             val requestedClassName = Path(file.getAbsolutePath()).lastSegment()
@@ -68,7 +76,8 @@ public class KotlinFileStore(file: File) : LocalFile(file) {
             if (generatedClass != null) {
                 val byteArray = generatedClass.asByteArray()
                 
-                KotlinLightClassManager.getInstance(project).cacheLightClass(file, byteArray)
+                lightClassManager.cacheLightClass(file, byteArray)
+                persistentKey?.let { PersistentLightClassCache.put(it, byteArray) }
                 return ByteArrayInputStream(byteArray)
             }
         }
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.filesystem
+
+import com.intellij.openapi.util.io.FileUtil
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResourceChangeEvent
+import org.eclipse.core.resources.IResourceChangeListener
+import org.eclipse.core.resources.IResourceDelta
+import org.eclipse.core.runtime.CoreException
+import org.eclipse.jdt.core.JavaCore
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.FileDeclarationsSummary
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.core.utils.sourceFolders
+import org.jetbrains.kotlin.psi.KtFile
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Stores bytes of generated light classes in the plugin state location. Entries are addressed by a hash of the
+ * light class path, texts of its source files, compiler settings and a fingerprint of everything the light class
+ * may depend on: declarations of other Kotlin files, Java sources and the classpath of the project and its
+ * dependencies. So entries survive restarts and never need explicit invalidation.
+ *
+ * Fingerprints are computed from saved contents of files and are kept in memory until a Kotlin, Java or library file
+ * of the workspace is changed. While a Kotlin or Java file the light class may depend on has unsaved changes, its
+ * light classes are not stored nor looked up, because they are generated from contents the fingerprint does not describe.
+ */
+object PersistentLightClassCache : IResourceChangeListener {
+    private const val CACHE_FOLDER_NAME = "lightClasses"
+    private const val MAX_ENTRIES = 20_000
+    private const val PRUNE_CHECK_INTERVAL = 500
+    private val DEPENDENCY_FILE_EXTENSIONS = setOf("kt", "java", "jar", "class", "classpath")
+
+    private val storesSinceLastPrune = AtomicInteger()
+
+    /**
+     * @param value hash of saved contents of the inputs
+     * @param projects the project and its dependency projects
+     * @param parsedFiles parsed Kotlin files whose text was equal to the saved one, with their modification stamps
+     * @param hasUnsavedFiles whether some Kotlin file had unsaved changes when the fingerprint was computed
+     */
+    private class DependencyFingerprint(
+        val value: String,
+        val projects: List<IProject>,
+        val parsedFiles: Map<IFile, Pair<KtFile, Long>>,
+        val hasUnsavedFiles: Boolean
+    )
+
+    private val dependencyFingerprints = ConcurrentHashMap<IProject, DependencyFingerprint>()
+
+    private val cacheFolder: File? by lazy {
+        Activator.getDefault()?.stateLocation?.append(CACHE_FOLDER_NAME)?.toFile()
+    }
+
+    /**
+     * @return key of the light class or `null` if files it may depend on have unsaved changes
+     */
+    fun computeKey(project: IProject, lightClass: File, sourceFiles: List<KtFile>): String? {
+        val fingerprint = dependencyFingerprints.computeIfAbsent(project) { computeDependencyFingerprint(it) }
+        if (hasUnsavedChanges(fingerprint)) return null
+
+        val digest = MessageDigest.getInstance("SHA-256")
+        fun update(value: Any?) {
+            digest.update(value.toString().toByteArray(Charsets.UTF_8))
+            digest.update(0)
+        }
+
+        update(Activator.getDefault()?.bundle?.version)
+        with(KotlinEnvironment.getEnvironment(project).compilerProperties) {
+            update(jvmTarget)
+            update(languageVersion)
+            update(apiVersion)
+            update(compilerFlags)
+            compilerPlugins.entries.filter { it.active }.forEach {
+                update(it.jarPath)
+                update(it.args)
+            }
+        }
+
+        update(fingerprint.value)
+
+        update(lightClass.path)
+        sourceFiles.sortedBy { it.virtualFilePath }.forEach {
+            update(it.virtualFilePath)
+            update(it.text)
+        }
+
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    fun get(key: String): ByteArray? {
+        val entry = entryFile(key)?.takeIf { it.isFile } ?: return null
+        return try {
+            entry.readBytes().also { entry.setLastModified(System.currentTimeMillis()) }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to read cached light class $entry", e)
+            null
+        }
+    }
+
+    fun put(key: String, lightClass: ByteArray) {
+        val entry = entryFile(key) ?: return
+        try {
+            entry.parentFile.mkdirs()
+            val tempFile = File.createTempFile(key, ".tmp", entry.parentFile)
+            tempFile.writeBytes(lightClass)
+            Files.move(tempFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to store light class $entry", e)
+            return
+        }
+
+        if (storesSinceLastPrune.incrementAndGet() >= PRUNE_CHECK_INTERVAL) {
+            storesSinceLastPrune.set(0)
+            prune()
+        }
+    }
+
+    override fun resourceChanged(event: IResourceChangeEvent) {
+        if (dependencyFingerprints.isEmpty()) return
+
+        try {
+            event.delta?.accept { delta ->
+                val resource = delta.resource
+                if (resource is IFile && resource.fileExtension in DEPENDENCY_FILE_EXTENSIONS &&
+                    (delta.kind != IResourceDelta.CHANGED || delta.flags and IResourceDelta.CONTENT != 0)
+                ) {
+                    dependencyFingerprints.clear()
+                }
+
+                dependencyFingerprints.isNotEmpty()
+            }
+        } catch (e: CoreException) {
+            KotlinLogger.logError(e)
+            dependencyFingerprints.clear()
+        }
+    }
+
+    private fun computeDependencyFingerprint(project: IProject): DependencyFingerprint {
+        val digest = MessageDigest.getInstance("SHA-256")
+        fun update(value: Any?) {
+            digest.update(value.toString().toByteArray(Charsets.UTF_8))
+            digest.update(0)
+        }
+
+        val parsedFiles = hashMapOf<IFile, Pair<KtFile, Long>>()
+        var hasUnsavedFiles = false
+
+        val javaProject = JavaCore.create(project)
+        val projects = (ProjectUtils.getDependencyProjects(javaProject) + project).sortedBy { it.name }
+        projects.forEach { dependency ->
+            KotlinPsiManager.getFilesByProject(dependency).sortedBy { it.fullPath.toPortableString() }.forEach {
+                update(it.fullPath)
+
+                // The signature is taken from the saved text, the parsed file may contain unsaved changes of an editor
+                val savedText = FileUtil.loadFile(File(it.rawLocation.toOSString()), null, true)
+                val parsedFile = KotlinPsiManager.getParsedFile(it)
+                val savedFile = if (parsedFile.text == savedText) {
+                    parsedFiles[it] = parsedFile to parsedFile.modificationStamp
+                    parsedFile
+                } else {
+                    hasUnsavedFiles = true
+                    KotlinPsiManager.parseText(savedText, it)
+                }
+                update(savedFile?.let { file -> FileDeclarationsSummary.create(file).signature })
+            }
+
+            JavaCore.create(dependency).sourceFolders.forEach { sourceFolder ->
+                sourceFolder.resource.accept { resource ->
+                    if (resource is IFile && resource.fileExtension == "java") {
+                        update(resource.fullPath)
+                        update(resource.modificationStamp)
+                    }
+                    true
+                }
+            }
+        }
+
+        ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject).forEach {
+            update(it.path)
+            update(it.lastModified())
+            update(it.length())
+        }
+
+        return DependencyFingerprint(
+            digest.digest().joinToString("") { "%02x".format(it) },
+            projects,
+            parsedFiles,
+            hasUnsavedFiles)
+    }
+
+    // Parsed Kotlin files are changed by editors before they are saved, Java files are changed in working copies
+    private fun hasUnsavedChanges(fingerprint: DependencyFingerprint): Boolean {
+        if (fingerprint.hasUnsavedFiles) return true
+
+        val kotlinFilesChanged = fingerprint.parsedFiles.any { (file, parsed) ->
+            val (parsedFile, modificationStamp) = parsed
+            val currentFile = KotlinPsiManager.getCachedParsedFile(file) ?: parsedFile
+            currentFile !== parsedFile || currentFile.modificationStamp != modificationStamp
+        }
+        if (kotlinFilesChanged) return true
+
+        return JavaCore.getWorkingCopies(null).any {
+            it.javaProject?.project in fingerprint.projects && it.hasUnsavedChanges()
+        }
+    }
+
+    @Synchronized
+    private fun prune() {
+        val entries = cacheFolder?.walkTopDown()?.filter { it.isFile }?.toList() ?: return
+        if (entries.size <= MAX_ENTRIES) return
+
+        entries.sortedBy { it.lastModified() }
+            .take(entries.size - MAX_ENTRIES)
+            .forEach { it.delete() }
+    }
+
+    private fun entryFile(key: String): File? = cacheFolder?.let { File(File(it, key.take(2)), "$key.class") }
+}
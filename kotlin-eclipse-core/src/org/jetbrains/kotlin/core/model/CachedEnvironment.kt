@@ -21,38 +21,63 @@ import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.vfs.impl.ZipHandler
 import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Environments are created under the lock of their resource, so independent environments are built concurrently.
+ * Built environments are looked up without locking. An environment registers itself with [putEnvironment] while
+ * it is created; it is visible only to the creating thread until the creation is complete.
+ */
 class CachedEnvironment<T: Any, E : KotlinCommonEnvironment> {
-    private val environmentLock = Any()
+    private val resourceLocks = ConcurrentHashMap<T, Any>()
 
     private val environmentCache = ConcurrentHashMap<T, E>()
+    private val environmentsInCreation = ConcurrentHashMap<T, E>()
     private val ideaProjectToEclipseResource = ConcurrentHashMap<Project, T>()
 
-    fun putEnvironment(resource: T, environment: E): Unit = synchronized(environmentLock) {
-        environmentCache[resource] = environment
+    private fun lockFor(resource: T): Any = resourceLocks.computeIfAbsent(resource) { Any() }
+
+    fun putEnvironment(resource: T, environment: E): Unit = synchronized(lockFor(resource)) {
+        environmentsInCreation[resource] = environment
         ideaProjectToEclipseResource[environment.project] = resource
     }
 
-    fun getOrCreateEnvironment(resource: T, createEnvironment: (T) -> E): E = synchronized(environmentLock) {
-        environmentCache.getOrPut(resource) {
-            createEnvironment(resource).also { ideaProjectToEclipseResource[it.project] = resource }
+    fun getOrCreateEnvironment(resource: T, createEnvironment: (T) -> E): E {
+        environmentCache[resource]?.let { return it }
+
+        return synchronized(lockFor(resource)) {
+            environmentCache[resource]
+                ?: environmentsInCreation[resource]
+                ?: createAndPublish(resource, createEnvironment)
         }
     }
 
-    fun removeEnvironment(resource: T) = synchronized(environmentLock) {
-        removeEnvironmentInternal(resource)
+    private fun createAndPublish(resource: T, createEnvironment: (T) -> E): E {
+        try {
+            val environment = createEnvironment(resource)
+            ideaProjectToEclipseResource[environment.project] = resource
+            environmentCache[resource] = environment
+            return environment
+        } catch (e: Throwable) {
+            environmentsInCreation[resource]?.let { ideaProjectToEclipseResource.remove(it.project) }
+            throw e
+        } finally {
+            environmentsInCreation.remove(resource)
+        }
     }
 
+    fun getEnvironmentIfCached(resource: T): E? = environmentCache[resource]
+
+    fun removeEnvironment(resource: T) = synchronized(lockFor(resource)) {
+        removeEnvironmentInternal(resource)
+    }
 
     fun removeEnvironmentIf(check: (KotlinCommonEnvironment) -> Boolean): List<T> {
         val tempToRemove = environmentCache.filter { check(it.value) }.map { it.key }
-        tempToRemove.forEach(::removeEnvironmentInternal)
+        tempToRemove.forEach(::removeEnvironment)
         return tempToRemove
     }
 
-    fun removeAllEnvironments() = synchronized(environmentLock) {
-        environmentCache.keys.toList().forEach {
-            removeEnvironmentInternal(it)
-        }
+    fun removeAllEnvironments() {
+        environmentCache.keys.toList().forEach(::removeEnvironment)
     }
 
     private fun removeEnvironmentInternal(resource: T) {
@@ -64,12 +89,10 @@ class CachedEnvironment<T: Any, E : KotlinCommonEnvironment> {
         }
     }
 
-    fun replaceEnvironment(resource: T, createEnvironment: (T) -> E): E = synchronized(environmentLock) {
-        removeEnvironment(resource)
-        getOrCreateEnvironment(resource, createEnvironment)
+    fun replaceEnvironment(resource: T, createEnvironment: (T) -> E): E = synchronized(lockFor(resource)) {
+        removeEnvironmentInternal(resource)
+        createAndPublish(resource, createEnvironment)
     }
 
-    fun getEclipseResource(ideaProject: Project): T? = synchronized(environmentLock) {
-        ideaProjectToEclipseResource[ideaProject]
-    }
-}
\ No newline at end of file
+    fun getEclipseResource(ideaProject: Project): T? = ideaProjectToEclipseResource[ideaProject]
+}
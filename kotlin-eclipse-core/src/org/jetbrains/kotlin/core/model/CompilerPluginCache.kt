@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.compiler.plugin.CommandLineProcessor
+import org.jetbrains.kotlin.compiler.plugin.ComponentRegistrar
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import java.io.File
+import java.io.IOException
+import java.net.URL
+import java.net.URLClassLoader
+import java.util.*
+
+class LoadedCompilerPlugin(val cliProcessor: CommandLineProcessor?, val registrar: ComponentRegistrar?)
+
+/**
+ * Class loaders of compiler plugin jars together with their command line processors and registrars, shared by all
+ * environments. Processors and registrars keep no state between registrations, so a plugin jar is loaded once
+ * and loaded again only when the jar changes on disk.
+ *
+ * Environments acquire plugins for their lifetime. The loader of an outdated version of a jar is closed once
+ * the last environment using it is disposed, so that the jar file is not kept open (and locked on Windows).
+ */
+object CompilerPluginCache {
+    private data class JarStamp(val path: String, val lastModified: Long, val length: Long)
+
+    private class Entry(val jarPath: String, val loader: URLClassLoader, val plugin: LoadedCompilerPlugin) {
+        var references = 0
+
+        // The jar has changed since the entry was loaded
+        var outdated = false
+    }
+
+    private val entries = HashMap<JarStamp, Entry>()
+
+    fun acquire(jarPath: String, disposable: Disposable): LoadedCompilerPlugin {
+        val jar = File(jarPath)
+        val stamp = JarStamp(jarPath, jar.lastModified(), jar.length())
+
+        val entry = synchronized(entries) {
+            val iterator = entries.entries.iterator()
+            while (iterator.hasNext()) {
+                val (otherStamp, otherEntry) = iterator.next()
+                if (otherStamp.path == jarPath && otherStamp != stamp) {
+                    iterator.remove()
+                    otherEntry.outdated = true
+                    if (otherEntry.references == 0) otherEntry.close()
+                }
+            }
+
+            entries.getOrPut(stamp) { loadPlugin(jarPath) }.also { it.references++ }
+        }
+        Disposer.register(disposable, Disposable { release(entry) })
+
+        return entry.plugin
+    }
+
+    private fun release(entry: Entry) = synchronized(entries) {
+        if (--entry.references == 0 && entry.outdated) {
+            entry.close()
+        }
+    }
+
+    private fun Entry.close() {
+        try {
+            loader.close()
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to close class loader of compiler plugin $jarPath", e)
+        }
+    }
+
+    private fun loadPlugin(jarPath: String): Entry {
+        val jarLoader = URLClassLoader(arrayOf(URL("file://$jarPath")), this::class.java.classLoader)
+
+        return Entry(jarPath, jarLoader, LoadedCompilerPlugin(jarLoader.loadService(), jarLoader.loadService()))
+    }
+
+    private inline fun <reified T : Any> ClassLoader.loadService(): T? =
+            ServiceLoader.load(T::class.java, this)
+                    .singleOrNull { it::class.java.classLoader == this }
+}
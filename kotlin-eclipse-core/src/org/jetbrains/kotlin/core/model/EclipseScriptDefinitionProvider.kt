@@ -58,6 +58,8 @@ class EclipseScriptDefinitionProvider : ScriptDefinitionProvider {
 
         fun isScript(script: SourceCode) = scriptDefinitions.any { it.isScript(script) }
 
+        fun definitionFor(script: SourceCode): ScriptDefinition? = scriptDefinitions.firstOrNull { it.isScript(script) }
+
         fun getEnvironment(scriptFile: File) =
                 scriptFile.asResource
                         ?.let { KotlinPsiManager.getKotlinParsedFile(it) }
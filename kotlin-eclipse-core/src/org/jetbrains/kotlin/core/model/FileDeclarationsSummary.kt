@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.psi.PsiComment
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiWhiteSpace
+import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.*
+
+/**
+ * Summary of a file which is used to find files affected by its change.
+ *
+ * [signature] is the text of the file without bodies which cannot change declarations seen from other files
+ * (block bodies and bodies of declarations with explicit types). If it is not changed, other files are not affected.
+ * [implicitlyTypedNames] are names of declarations whose types are inferred, so they may change when this file
+ * is re-analysed even if its own text is the same.
+ */
+internal class FileDeclarationsSummary private constructor(
+    val signature: String,
+    val declaredNames: Set<String>,
+    val referencedNames: Set<String>,
+    val implicitlyTypedNames: Set<String>,
+    val hasOperatorDeclarations: Boolean
+) {
+    companion object {
+        fun create(file: KtFile): FileDeclarationsSummary {
+            val signature = StringBuilder().apply { appendSignature(file) }.toString()
+
+            val declarations = PsiTreeUtil.collectElementsOfType(file, KtNamedDeclaration::class.java)
+                .filterNot { KtPsiUtil.isLocal(it) }
+
+            return FileDeclarationsSummary(
+                signature,
+                declarations.mapNotNullTo(hashSetOf()) { it.name },
+                PsiTreeUtil.collectElementsOfType(file, KtSimpleNameExpression::class.java)
+                    .mapTo(hashSetOf()) { it.getReferencedName() },
+                declarations.filter { isImplicitlyTyped(it) }.mapNotNullTo(hashSetOf()) { it.name },
+                declarations.any { it.hasModifier(KtTokens.OPERATOR_KEYWORD) }
+            )
+        }
+    }
+}
+
+private fun isImplicitlyTyped(declaration: KtNamedDeclaration): Boolean = when (declaration) {
+    is KtProperty -> declaration.typeReference == null
+    is KtNamedFunction -> !declaration.hasBlockBody() && !declaration.hasDeclaredReturnType()
+    else -> false
+}
+
+private fun StringBuilder.appendSignature(element: PsiElement) {
+    when {
+        element is PsiWhiteSpace || element is PsiComment -> return
+        isInsignificantBody(element) -> append("{}")
+        element.firstChild == null -> append(element.text).append(' ')
+        else -> {
+            var child = element.firstChild
+            while (child != null) {
+                appendSignature(child)
+                child = child.nextSibling
+            }
+        }
+    }
+}
+
+private fun isInsignificantBody(element: PsiElement): Boolean {
+    val parent = element.parent
+    return when (parent) {
+        is KtAnonymousInitializer -> element == parent.body
+        is KtSecondaryConstructor -> element == parent.bodyExpression
+        is KtNamedFunction -> element == parent.bodyExpression && (parent.hasBlockBody() || parent.hasDeclaredReturnType())
+        is KtPropertyAccessor -> element == parent.bodyExpression &&
+                (parent.hasBlockBody() || parent.property.typeReference != null)
+        is KtProperty -> (element == parent.initializer || element == parent.delegateExpression) &&
+                parent.typeReference != null && !parent.hasModifier(KtTokens.CONST_KEYWORD)
+        else -> false
+    }
+}
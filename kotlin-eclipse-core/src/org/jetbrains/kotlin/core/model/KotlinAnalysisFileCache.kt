@@ -16,43 +16,140 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.core.model
 
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
 import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.psi.KtFile
 
 data class FileAnalysisResults(val file: KtFile, val analysisResult: AnalysisResultWithProvider)
 
+data class AnalysisCacheStatistics(
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val entries: Int,
+    val estimatedSizeBytes: Long
+)
+
+/**
+ * Keeps analysis results for several recently used files, so switching between editors
+ * does not throw away the analysis of the previous one.
+ *
+ * Entries are keyed by file path and are valid only for the same [KtFile] instance with the same modification stamp.
+ * The total estimated size of the entries is bounded by [KotlinPerformanceProperties.analysisCacheSizeMb],
+ * least recently used entries are evicted first. Entries of a project and of projects depending on it are dropped
+ * by [resetCache], e.g. when Java declarations of the project change.
+ */
 object KotlinAnalysisFileCache {
-    @Volatile
-    private var lastAnalysedFileCache: FileAnalysisResults? = null
+    // Rough estimation of the retained heap per character of the analysed source
+    private const val BYTES_PER_SOURCE_CHAR = 256L
+    private const val ENTRY_BASE_SIZE_BYTES = 512L * 1024
+
+    private class CacheEntry(
+        val results: FileAnalysisResults,
+        val modificationStamp: Long,
+        val sourceProjects: Set<IProject>,
+        val estimatedSize: Long
+    )
+
+    private val cachedResults = LinkedHashMap<Any, CacheEntry>(16, 0.75f, true)
+
+    private var estimatedSize = 0L
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
 
     @Synchronized fun getAnalysisResult(file: KtFile): AnalysisResultWithProvider {
         return getImmediatlyFromCache(file) ?: run {
+            misses++
+
             val environment = getEnvironment(file.project)!!
             val analysisResult = resolve(file, environment)
-            
-            lastAnalysedFileCache = FileAnalysisResults(file, analysisResult)
-            lastAnalysedFileCache!!.analysisResult
+
+            putToCache(file, environment, analysisResult)
+            analysisResult
         }
     }
-    
-    fun resetCache() {
-        lastAnalysedFileCache = null
+
+    @Synchronized fun resetCache() {
+        cachedResults.clear()
+        estimatedSize = 0
+    }
+
+    @Synchronized fun resetCache(project: IProject) {
+        val iterator = cachedResults.values.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (project in entry.sourceProjects) {
+                estimatedSize -= entry.estimatedSize
+                iterator.remove()
+            }
+        }
     }
-    
+
+    @Synchronized fun getStatistics(): AnalysisCacheStatistics =
+        AnalysisCacheStatistics(hits, misses, evictions, cachedResults.size, estimatedSize)
+
     private fun resolve(file: KtFile, environment: KotlinCommonEnvironment): AnalysisResultWithProvider {
         return when (environment) {
-            is KotlinScriptEnvironment -> EclipseAnalyzerFacadeForJVM.analyzeScript(environment, file)
+            is KotlinScriptEnvironment -> KotlinScriptEnvironment.useEnvironment(environment) {
+                EclipseAnalyzerFacadeForJVM.analyzeScript(environment, file)
+            }
             is KotlinEnvironment -> EclipseAnalyzerFacadeForJVM.analyzeSources(environment, listOf(file))
             else -> throw IllegalArgumentException("Could not analyze file with environment: $environment")
         }
     }
-    
+
+    private fun putToCache(file: KtFile, environment: KotlinCommonEnvironment, analysisResult: AnalysisResultWithProvider) {
+        val entry = CacheEntry(
+            FileAnalysisResults(file, analysisResult),
+            file.modificationStamp,
+            collectSourceProjects(environment),
+            ENTRY_BASE_SIZE_BYTES + file.textLength * BYTES_PER_SOURCE_CHAR
+        )
+
+        cachedResults.put(cacheKey(file), entry)?.also { estimatedSize -= it.estimatedSize }
+        estimatedSize += entry.estimatedSize
+
+        evictIfNeeded()
+    }
+
+    private fun evictIfNeeded() {
+        val budget = KotlinPerformanceProperties.workspaceInstance.analysisCacheSizeMb.toLong() * 1024 * 1024
+
+        val iterator = cachedResults.values.iterator()
+        // The most recently used entry is always kept, even if it alone exceeds the budget
+        while (estimatedSize > budget && cachedResults.size > 1 && iterator.hasNext()) {
+            estimatedSize -= iterator.next().estimatedSize
+            iterator.remove()
+            evictions++
+        }
+    }
+
     @Synchronized
     private fun getImmediatlyFromCache(file: KtFile): AnalysisResultWithProvider? {
-        return if (lastAnalysedFileCache != null && lastAnalysedFileCache!!.file == file)
-            lastAnalysedFileCache!!.analysisResult
-        else
+        val key = cacheKey(file)
+        val entry = cachedResults[key] ?: return null
+
+        return if (entry.results.file == file && entry.modificationStamp == file.modificationStamp) {
+            hits++
+            entry.results.analysisResult
+        } else {
+            cachedResults.remove(key)
+            estimatedSize -= entry.estimatedSize
             null
+        }
     }
-}
\ No newline at end of file
+
+    // Analysis of a file also depends on sources of the projects it depends on
+    private fun collectSourceProjects(environment: KotlinCommonEnvironment): Set<IProject> {
+        val javaProject = environment.javaProject
+        if (!javaProject.exists()) return setOf(javaProject.project)
+
+        return ProjectUtils.getDependencyProjects(javaProject) + javaProject.project
+    }
+
+    private fun cacheKey(file: KtFile): Any = file.virtualFile?.path ?: file
+}
@@ -16,68 +16,405 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.core.model
 
-import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IProject
 import org.eclipse.core.resources.IResourceChangeEvent
 import org.eclipse.core.resources.IResourceChangeListener
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.analyzer.AnalysisResult
-import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
 import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.core.utils.currentCancellationCheck
+import org.jetbrains.kotlin.core.utils.runCancellable
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.CompositeBindingContext
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.resolve.diagnostics.SimpleDiagnostics
+import java.util.IdentityHashMap
+import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * Caches analysis of the whole project. After the first full analysis only changed files and files which reference
+ * declarations from files with changed signatures are analyzed again, diagnostics of other files are reused.
+ * Changes of Java declarations are handled the same way, see [invalidateReferences]: the files which mention names
+ * of changed declarations or depend on changed Java classes according to their last analysis are analyzed again.
+ *
+ * Full analysis of a large project is split into partitions which are analyzed in parallel,
+ * see [KotlinPerformanceProperties.analysisParallelism].
+ *
+ * The cached result is meant for project diagnostics, it is not suitable for resolution. Each partition and each
+ * incremental analysis resolves sources in its own module, so the binding context combines descriptors of several
+ * modules: the same declaration may be represented by different descriptors, and [AnalysisResult.moduleDescriptor]
+ * is the module of only one of the analyses. Use [KotlinAnalysisFileCache] to resolve code of a file.
+ */
 object KotlinAnalysisProjectCache : IResourceChangeListener {
-    private val cachedAnalysisResults = ConcurrentHashMap<IProject, AnalysisResult>()
+    private const val MAX_RECOMPUTED_FILES_RATIO = 0.5
+
+    // Declarations used by a partition are resolved again in it, so small partitions do not pay off
+    private const val MIN_FILES_PER_PARTITION = 50
+
+    private val cachedStates = ConcurrentHashMap<IProject, ProjectAnalysisState>()
+
+    // Changed Java declarations which are not yet taken into account by the cached states
+    private val changedJavaDeclarations = ConcurrentHashMap<IProject, ChangedJavaDeclarations>()
+
+    // Number of threads waiting for or running interactive analysis of a project
+    private val interactiveRequests = ConcurrentHashMap<IProject, AtomicInteger>()
 
     fun resetCache(project: IProject) {
         synchronized(project) {
-            cachedAnalysisResults.remove(project)
+            cachedStates.remove(project)
+            changedJavaDeclarations.remove(project)
+        }
+    }
+
+    /**
+     * Makes files which mention any of [names] or depend on any of Java classes [typeNames] (fully qualified) to be
+     * analyzed again on the next request, other files keep their diagnostics. Affects [project] and cached projects
+     * depending on it. Used when Java declarations are changed.
+     *
+     * Dependencies on Java classes are taken from the binding context, so members used without mentioning their names
+     * (operators, SAM conversions, inherited members, members of inferred types) are taken into account as well.
+     * Names are needed for new declarations which may change resolution of code not depending on them yet.
+     */
+    fun invalidateReferences(project: IProject, names: Collection<String>, typeNames: Collection<String>) {
+        for (cachedProject in cachedStates.keys.toList()) {
+            if (cachedProject != project && project !in ProjectUtils.getDependencyProjects(JavaCore.create(cachedProject))) {
+                continue
+            }
+
+            synchronized(cachedProject) {
+                if (cachedStates.containsKey(cachedProject)) {
+                    changedJavaDeclarations.getOrPut(cachedProject) { ChangedJavaDeclarations() }.let {
+                        it.names.addAll(names)
+                        it.typeNames.addAll(typeNames)
+                    }
+                }
+            }
         }
     }
 
     fun resetAllCaches() {
-        cachedAnalysisResults.keys.toList().forEach {
+        cachedStates.keys.toList().forEach {
             resetCache(it)
         }
     }
 
     fun getAnalysisResult(javaProject: IJavaProject): AnalysisResult {
+        val requests = interactiveRequests.computeIfAbsent(javaProject.project) { AtomicInteger() }
+        requests.incrementAndGet()
+        try {
+            return analyze(javaProject)
+        } finally {
+            requests.decrementAndGet()
+        }
+    }
+
+    /**
+     * Analyzes the project unless its analysis is already cached. Gives way to [getAnalysisResult]: the analysis is
+     * abandoned as soon as an interactive request for the same project is waiting.
+     * Returns `null` if the analysis was abandoned or canceled by [isCanceled].
+     */
+    fun getAnalysisResultInBackground(javaProject: IJavaProject, isCanceled: () -> Boolean): AnalysisResult? {
+        val project = javaProject.project
+        getAnalysisResultIfCached(project)?.let { return it }
+
+        val requests = interactiveRequests.computeIfAbsent(project) { AtomicInteger() }
+        return try {
+            runCancellable({ isCanceled() || requests.get() > 0 }) { analyze(javaProject) }
+        } catch (e: CompilationCanceledException) {
+            null
+        }
+    }
+
+    private fun analyze(javaProject: IJavaProject): AnalysisResult {
         val project = javaProject.project
         return synchronized(project) {
-            val analysisResult = cachedAnalysisResults.get(project) ?: run {
-                EclipseAnalyzerFacadeForJVM.analyzeSources(
-                        KotlinEnvironment.getEnvironment(project),
-                        ProjectUtils.getSourceFiles(javaProject.project)).analysisResult
-            }
+            val environment = KotlinEnvironment.getEnvironment(project)
+            val previousState = cachedStates[project]
+            val projectFiles = collectFileStates(listOf(project), previousState?.projectFiles)
+            val dependencyFiles = collectFileStates(
+                ProjectUtils.getDependencyProjects(javaProject),
+                previousState?.dependencyFiles
+            )
+
+            val javaDeclarations = changedJavaDeclarations.remove(project) ?: ChangedJavaDeclarations()
+
+            val state = previousState
+                ?.let { analyzeIncrementally(environment, it, projectFiles, dependencyFiles, javaDeclarations) }
+                ?: analyzeFully(environment, previousState?.statistics, projectFiles, dependencyFiles)
 
-            cachedAnalysisResults.putIfAbsent(project, analysisResult) ?: analysisResult
+            cachedStates[project] = state
+            state.analysisResult
         }
     }
 
-    @Synchronized
-    public fun getAnalysisResultIfCached(project: IProject): AnalysisResult? {
-        return cachedAnalysisResults.get(project)
+    fun getAnalysisResultIfCached(project: IProject): AnalysisResult? {
+        return cachedStates[project]?.analysisResult
     }
 
+    fun getStatistics(project: IProject): ProjectAnalysisStatistics =
+        cachedStates[project]?.statistics ?: ProjectAnalysisStatistics(0, 0)
+
     override fun resourceChanged(event: IResourceChangeEvent) {
         when (event.type) {
             IResourceChangeEvent.PRE_DELETE,
-            IResourceChangeEvent.PRE_CLOSE,
-            IResourceChangeEvent.PRE_BUILD -> event.delta?.accept { delta ->
-                val resource = delta.resource
-                if (resource is IFile) {
-                    val javaProject = JavaCore.create(resource.getProject())
-                    if (KotlinPsiManager.isKotlinSourceFile(resource, javaProject)) {
-                        cachedAnalysisResults.remove(resource.getProject())
-                    }
+            IResourceChangeEvent.PRE_CLOSE -> (event.resource as? IProject)?.let {
+                cachedStates.remove(it)
+                changedJavaDeclarations.remove(it)
+                interactiveRequests.remove(it)
+            }
+        }
+    }
+
+    private fun analyzeFully(
+        environment: KotlinEnvironment,
+        statistics: ProjectAnalysisStatistics?,
+        projectFiles: Map<String, FileState>,
+        dependencyFiles: Map<String, FileState>
+    ): ProjectAnalysisState {
+        val files = projectFiles.values.map { it.ktFile }
+        val partitions = partition(files, getAnalysisParallelism())
+
+        val results = analyzePartitions(environment, partitions)
+
+        val diagnostics = LinkedHashMap<KtFile, List<Diagnostic>>()
+        val javaTypeReferences = hashMapOf<KtFile, Set<String>>()
+        partitions.zip(results).forEach { (partition, result) ->
+            diagnostics.putAll(groupByFile(result.bindingContext.diagnostics.all(), partition))
+            partition.associateWithTo(javaTypeReferences) { collectReferencedJavaTypes(it, result.bindingContext) }
+        }
+
+        val baseBindingContext = results.singleOrNull()?.bindingContext
+            ?: CompositeBindingContext.create(results.map { it.bindingContext })
+        val analysisResult = results.singleOrNull() ?: AnalysisResult.success(
+            DiagnosticsReplacingBindingContext(baseBindingContext, SimpleDiagnostics(diagnostics.values.flatten())),
+            results.first().moduleDescriptor
+        )
+
+        return ProjectAnalysisState(
+            analysisResult,
+            baseBindingContext,
+            projectFiles,
+            dependencyFiles,
+            diagnostics,
+            javaTypeReferences,
+            ProjectAnalysisStatistics(statistics?.reusedFiles ?: 0, (statistics?.recomputedFiles ?: 0) + files.size)
+        )
+    }
+
+    private fun analyzeIncrementally(
+        environment: KotlinEnvironment,
+        previous: ProjectAnalysisState,
+        projectFiles: Map<String, FileState>,
+        dependencyFiles: Map<String, FileState>,
+        changedJava: ChangedJavaDeclarations
+    ): ProjectAnalysisState? {
+        val changedProjectFiles = changedFiles(previous.projectFiles, projectFiles)
+        val changedDependencyFiles = changedFiles(previous.dependencyFiles, dependencyFiles)
+        if (changedProjectFiles.isEmpty() && changedDependencyFiles.isEmpty() && changedJava.isEmpty()) {
+            return previous
+        }
+
+        val changedNames = hashSetOf<String>().apply { addAll(changedJava.names) }
+        for (path in changedProjectFiles + changedDependencyFiles) {
+            val oldSummary = (previous.projectFiles[path] ?: previous.dependencyFiles[path])?.summary
+            val newSummary = (projectFiles[path] ?: dependencyFiles[path])?.summary
+            if (oldSummary?.signature == newSummary?.signature) continue
+
+            if (oldSummary?.hasOperatorDeclarations == true || newSummary?.hasOperatorDeclarations == true) return null
+
+            oldSummary?.let { changedNames.addAll(it.declaredNames) }
+            newSummary?.let { changedNames.addAll(it.declaredNames) }
+        }
+
+        // Files which refer to a changed name or declare the same name (redeclarations, overloads) are re-analysed.
+        // Inferred types of declarations in these files may change as well, so names of such declarations
+        // are propagated further until no new files are affected
+        val pathsToRecompute = changedProjectFiles.filterTo(hashSetOf()) { it in projectFiles }
 
-                    return@accept false
+        if (changedJava.typeNames.isNotEmpty()) {
+            val affected = projectFiles.filter { (path, state) ->
+                path !in pathsToRecompute &&
+                        previous.javaTypeReferences[state.ktFile].orEmpty().any { isChangedJavaType(it, changedJava.typeNames) }
+            }
+            pathsToRecompute.addAll(affected.keys)
+            affected.values.flatMapTo(changedNames) { it.summary.implicitlyTypedNames }
+        }
+
+        var newNames: Set<String> = changedNames.toSet()
+        while (newNames.isNotEmpty()) {
+            val affected = projectFiles.filter { (path, state) ->
+                path !in pathsToRecompute && (state.summary.referencedNames.any { it in newNames } ||
+                        state.summary.declaredNames.any { it in newNames })
+            }
+            pathsToRecompute.addAll(affected.keys)
+
+            newNames = affected.values.flatMapTo(hashSetOf()) { it.summary.implicitlyTypedNames }
+                .filterTo(hashSetOf()) { changedNames.add(it) }
+        }
+
+        if (pathsToRecompute.size > projectFiles.size * MAX_RECOMPUTED_FILES_RATIO) return null
+
+        val filesToRecompute = pathsToRecompute.mapTo(hashSetOf()) { projectFiles.getValue(it).ktFile }
+
+        fun isReused(file: KtFile) = file !in filesToRecompute && projectFiles[file.virtualFilePath]?.ktFile === file
+
+        val diagnostics = previous.diagnostics.filterKeys { isReused(it) }.toMutableMap()
+        val javaTypeReferences = previous.javaTypeReferences.filterKeys { isReused(it) }.toMutableMap()
+
+        val bindingContext = if (filesToRecompute.isNotEmpty()) {
+            val newResult = EclipseAnalyzerFacadeForJVM.analyzeSources(environment, filesToRecompute).analysisResult
+            diagnostics.putAll(groupByFile(newResult.bindingContext.diagnostics.all(), filesToRecompute))
+            filesToRecompute.associateWithTo(javaTypeReferences) {
+                collectReferencedJavaTypes(it, newResult.bindingContext)
+            }
+
+            CompositeBindingContext.create(listOf(newResult.bindingContext, previous.baseBindingContext))
+        } else {
+            previous.baseBindingContext
+        }
+
+        val analysisResult = AnalysisResult.success(
+            DiagnosticsReplacingBindingContext(bindingContext, SimpleDiagnostics(diagnostics.values.flatten())),
+            previous.analysisResult.moduleDescriptor
+        )
+
+        return ProjectAnalysisState(
+            analysisResult,
+            previous.baseBindingContext,
+            projectFiles,
+            dependencyFiles,
+            diagnostics,
+            javaTypeReferences,
+            previous.statistics.let {
+                ProjectAnalysisStatistics(
+                    it.reusedFiles + projectFiles.size - filesToRecompute.size,
+                    it.recomputedFiles + filesToRecompute.size
+                )
+            }
+        )
+    }
+
+    // Each partition is analyzed against all sources, so diagnostics of its files are the same as in a single analysis.
+    // Partitions do not share descriptors of sources, declarations used by several partitions are resolved in each.
+    // Descriptors of libraries are shared, see BinaryDependenciesModule: partitions wait for each other only while
+    // a library descriptor is computed, computed descriptors are read without locking
+    private fun analyzePartitions(environment: KotlinEnvironment, partitions: List<List<KtFile>>): List<AnalysisResult> {
+        if (partitions.size <= 1) {
+            return listOf(EclipseAnalyzerFacadeForJVM.analyzeSources(environment, partitions.flatten()).analysisResult)
+        }
+
+        val isCanceled = currentCancellationCheck()
+        val executor = Executors.newFixedThreadPool(partitions.size) { runnable ->
+            Thread(runnable, "Kotlin analysis (${environment.javaProject.elementName})").apply { isDaemon = true }
+        }
+        try {
+            return partitions
+                .map { partition ->
+                    executor.submit(Callable {
+                        runCancellable(isCanceled) {
+                            EclipseAnalyzerFacadeForJVM.analyzeSources(environment, partition).analysisResult
+                        }
+                    })
                 }
+                .map { future ->
+                    try {
+                        future.get()
+                    } catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    // Splits files into partitions of similar total size, files keep their order inside a partition
+    private fun partition(files: List<KtFile>, parallelism: Int): List<List<KtFile>> {
+        val count = minOf(parallelism, files.size / MIN_FILES_PER_PARTITION)
+        if (count <= 1) return listOf(files)
+
+        val sizes = LongArray(count)
+        val partitionIndices = IdentityHashMap<KtFile, Int>()
+        for (file in files.sortedByDescending { it.textLength }) {
+            val index = sizes.indices.minByOrNull { sizes[it] }!!
+            sizes[index] += file.textLength.toLong()
+            partitionIndices[file] = index
+        }
+
+        return files.groupBy { partitionIndices[it]!! }.toSortedMap().values.toList()
+    }
+
+    private fun getAnalysisParallelism(): Int =
+        KotlinPerformanceProperties.workspaceInstance.analysisParallelism
+            .takeIf { it > 0 }
+            ?: Runtime.getRuntime().availableProcessors()
+
+    private fun collectFileStates(projects: Collection<IProject>, previous: Map<String, FileState>?): Map<String, FileState> =
+        projects.flatMap { ProjectUtils.getSourceFiles(it) }.associate { file ->
+            val path = file.virtualFilePath
+            val previousState = previous?.get(path)
+                ?.takeIf { it.ktFile === file && it.modificationStamp == file.modificationStamp }
 
-                true
+            path to (previousState ?: FileState(file, file.modificationStamp))
+        }
+
+    private fun changedFiles(old: Map<String, FileState>, new: Map<String, FileState>): Set<String> =
+        (old.keys + new.keys).filterTo(hashSetOf()) { path ->
+            val oldState = old[path]
+            val newState = new[path]
+            oldState == null || newState == null ||
+                    oldState.ktFile !== newState.ktFile || oldState.modificationStamp != newState.modificationStamp
+        }
+
+    private fun groupByFile(diagnostics: Collection<Diagnostic>, files: Collection<KtFile>): Map<KtFile, List<Diagnostic>> {
+        val result = files.associateWithTo(hashMapOf<KtFile, List<Diagnostic>>()) { emptyList() }
+        diagnostics.groupBy { it.psiFile }.forEach { (file, fileDiagnostics) ->
+            if (file is KtFile && file in result) {
+                result[file] = fileDiagnostics
             }
         }
+
+        return result
     }
-}
\ No newline at end of file
+}
+
+data class ProjectAnalysisStatistics(val reusedFiles: Int, val recomputedFiles: Int)
+
+private class FileState(val ktFile: KtFile, val modificationStamp: Long) {
+    val summary = FileDeclarationsSummary.create(ktFile)
+}
+
+private class ProjectAnalysisState(
+    val analysisResult: AnalysisResult,
+    val baseBindingContext: BindingContext,
+    val projectFiles: Map<String, FileState>,
+    val dependencyFiles: Map<String, FileState>,
+    val diagnostics: Map<KtFile, List<Diagnostic>>,
+    // Fully qualified names of Java classes each file depends on, see [collectReferencedJavaTypes]
+    val javaTypeReferences: Map<KtFile, Set<String>>,
+    val statistics: ProjectAnalysisStatistics
+)
+
+private class ChangedJavaDeclarations {
+    val names = hashSetOf<String>()
+    val typeNames = hashSetOf<String>()
+
+    fun isEmpty() = names.isEmpty() && typeNames.isEmpty()
+}
+
+private class DiagnosticsReplacingBindingContext(
+    delegate: BindingContext,
+    private val diagnostics: Diagnostics
+) : BindingContext by delegate {
+    override fun getDiagnostics(): Diagnostics = diagnostics
+}
@@ -61,15 +61,19 @@ import org.jetbrains.kotlin.cli.common.CliModuleVisibilityManagerImpl
 import org.jetbrains.kotlin.cli.jvm.compiler.*
 import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
 import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesDynamicCompoundIndex
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
 import org.jetbrains.kotlin.cli.jvm.index.SingleJavaFileRootsIndex
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
 import org.jetbrains.kotlin.codegen.extensions.ExpressionCodegenExtension
 import org.jetbrains.kotlin.config.CommonConfigurationKeys
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.resolve.BinaryDependenciesModule
 import org.jetbrains.kotlin.core.resolve.BuiltInsReferenceResolver
 import org.jetbrains.kotlin.core.resolve.KotlinCacheServiceImpl
 import org.jetbrains.kotlin.core.resolve.KotlinSourceIndex
+import org.jetbrains.kotlin.core.resolve.KotlinTopLevelCallablesIndex
 import org.jetbrains.kotlin.core.utils.KotlinImportInserterHelper
 import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
 import org.jetbrains.kotlin.extensions.DeclarationAttributeAltererExtension
@@ -114,12 +118,18 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     var hasError = false
 
     val projectEnvironment: JavaCoreProjectEnvironment
-    private val roots = LinkedHashSet<JavaRoot>()
+    @Volatile
+    private var roots = LinkedHashSet<JavaRoot>()
 
     val configuration = CompilerConfiguration()
 
     abstract val javaProject: IJavaProject
 
+    @Volatile
+    internal var binaryDependenciesModule: BinaryDependenciesModule? = null
+
+    val topLevelCallablesIndex by lazy { KotlinTopLevelCallablesIndex(this) }
+
     init {
         setIdeaIoUseFallback()
 
@@ -204,6 +214,36 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
 
     fun getRoots(): Set<JavaRoot> = roots
 
+    /**
+     * Builds the dependencies index over the classpath roots. Consecutive jar roots are indexed through
+     * [SharedJarRootsIndex], so that environments with the same libraries do not index them again.
+     * The original order of roots is kept, as the first root containing a class wins.
+     */
+    protected fun createDependenciesIndex(
+        disposable: Disposable = projectEnvironment.parentDisposable
+    ): JvmDependenciesIndex {
+        val groups = ArrayList<MutableList<JavaRoot>>()
+        for (root in roots) {
+            val lastGroup = groups.lastOrNull()
+            if (lastGroup != null && lastGroup.first().isJarRoot == root.isJarRoot) {
+                lastGroup.add(root)
+            } else {
+                groups.add(arrayListOf(root))
+            }
+        }
+
+        val indexes = groups.map { group ->
+            if (group.first().isJarRoot) {
+                SharedJarRootsIndex.acquire(group, disposable)
+            } else {
+                JvmDependenciesIndexImpl(group)
+            }
+        }
+
+        return indexes.singleOrNull()
+            ?: JvmDependenciesDynamicCompoundIndex().apply { indexes.forEach { addIndex(it) } }
+    }
+
     fun getVirtualFile(location: IPath): VirtualFile? {
         return kotlinCoreApplicationEnvironment.localFileSystem.findFileByIoFile(location.toFile())
     }
@@ -218,28 +258,44 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     }
 
     protected fun addToClasspath(path: File, rootType: JavaRoot.RootType? = null) {
-        if (path.isFile) {
-            val jarFile = kotlinCoreApplicationEnvironment.jarFileSystem.findFileByPath("$path!/")
-            if (jarFile == null) {
-                KotlinLogger.logWarning("Can't find jar: $path")
-                return
-            }
+        createRoot(path, rootType)?.let { roots.add(it) }
+    }
 
-            projectEnvironment.addJarToClassPath(path)
+    /**
+     * Replaces the classpath roots with the roots of [files], in their order. Roots of files which stay on
+     * the classpath are reused, only new files are registered in the project environment.
+     */
+    protected fun replaceClasspath(files: List<File>) {
+        val currentRoots = roots.associateBy { it.file }
+        val newRoots = LinkedHashSet<JavaRoot>()
+        for (file in files) {
+            val root = findRootFile(file)?.let { currentRoots[it] } ?: createRoot(file, null) ?: continue
+            newRoots.add(root)
+        }
+
+        roots = newRoots
+    }
 
-            val type = rootType ?: JavaRoot.RootType.BINARY
-            roots.add(JavaRoot(jarFile, type))
+    private fun findRootFile(path: File): VirtualFile? =
+        if (path.isFile) {
+            kotlinCoreApplicationEnvironment.jarFileSystem.findFileByPath("$path!/")
         } else {
-            val root = kotlinCoreApplicationEnvironment.localFileSystem.findFileByPath(path.absolutePath)
-            if (root == null) {
-                KotlinLogger.logWarning("Can't find jar: $path")
-                return
-            }
+            kotlinCoreApplicationEnvironment.localFileSystem.findFileByPath(path.absolutePath)
+        }
 
-            projectEnvironment.addSourcesToClasspath(root)
+    private fun createRoot(path: File, rootType: JavaRoot.RootType?): JavaRoot? {
+        val root = findRootFile(path)
+        if (root == null) {
+            KotlinLogger.logWarning("Can't find jar: $path")
+            return null
+        }
 
-            val type = rootType ?: JavaRoot.RootType.SOURCE
-            roots.add(JavaRoot(root, type))
+        return if (path.isFile) {
+            projectEnvironment.addJarToClassPath(path)
+            JavaRoot(root, rootType ?: JavaRoot.RootType.BINARY)
+        } else {
+            projectEnvironment.addSourcesToClasspath(root)
+            JavaRoot(root, rootType ?: JavaRoot.RootType.SOURCE)
         }
     }
 
@@ -250,6 +306,9 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     }
 }
 
+private val JavaRoot.isJarRoot: Boolean
+    get() = file.fileSystem == KotlinCommonEnvironment.kotlinCoreApplicationEnvironment.jarFileSystem
+
 private fun createKotlinCoreApplicationEnvironment(disposable: Disposable): KotlinCoreApplicationEnvironment =
     KotlinCoreApplicationEnvironment.create(disposable, false).apply {
         registerAppExtensionPoints()
@@ -29,6 +29,10 @@ import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IProject
 import org.eclipse.core.resources.IResource
 import org.eclipse.core.resources.ProjectScope
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.jobs.Job
 import org.eclipse.jdt.core.IClasspathContainer
 import org.eclipse.jdt.core.IClasspathEntry
 import org.eclipse.jdt.core.IJavaProject
@@ -38,11 +42,9 @@ import org.eclipse.osgi.internal.loader.EquinoxClassLoader
 import org.jetbrains.kotlin.asJava.classes.FacadeCache
 import org.jetbrains.kotlin.cli.jvm.compiler.CliVirtualFileFinderFactory
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCliJavaFileManagerImpl
-import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
 import org.jetbrains.kotlin.cli.jvm.index.SingleJavaFileRootsIndex
 import org.jetbrains.kotlin.compiler.plugin.CliOptionValue
-import org.jetbrains.kotlin.compiler.plugin.CommandLineProcessor
-import org.jetbrains.kotlin.compiler.plugin.ComponentRegistrar
 import org.jetbrains.kotlin.compiler.plugin.parsePluginOption
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.config.JVMConfigurationKeys
@@ -55,7 +57,10 @@ import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.preferences.CompilerPlugin
 import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
 import org.jetbrains.kotlin.core.preferences.KotlinProperties
+import org.jetbrains.kotlin.core.resolve.KotlinTopLevelCallablesIndex
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassCache
 import org.jetbrains.kotlin.core.resolve.lang.kotlin.EclipseVirtualFileFinderFactory
 import org.jetbrains.kotlin.core.utils.DependencyResolverException
 import org.jetbrains.kotlin.core.utils.ProjectUtils
@@ -80,6 +85,7 @@ import java.io.File
 import java.net.URL
 import java.net.URLClassLoader
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.script.experimental.api.ScriptCompilationConfiguration
 import kotlin.script.experimental.dependencies.ScriptDependencies
 import kotlin.script.experimental.host.FileScriptSource
@@ -95,12 +101,13 @@ fun getEnvironment(eclipseFile: IFile): KotlinCommonEnvironment {
 }
 
 fun getEnvironment(ideaProject: Project): KotlinCommonEnvironment? {
-    val eclipseResource = getEclipseResource(ideaProject) ?: return null
-    return when (eclipseResource) {
-        is IFile -> KotlinScriptEnvironment.getEnvironment(eclipseResource)
-        is IProject -> KotlinEnvironment.getEnvironment(eclipseResource)
-        else -> throw IllegalStateException("Could not get environment for resource: $eclipseResource")
+    val eclipseProject = KotlinEnvironment.getJavaProject(ideaProject)
+    if (eclipseProject != null) {
+        return KotlinEnvironment.getEnvironment(eclipseProject)
     }
+
+    // Script environments are shared by several files, so the environment is taken directly
+    return KotlinScriptEnvironment.getEnvironment(ideaProject)
 }
 
 fun getEclipseResource(ideaProject: Project): IResource? {
@@ -109,11 +116,20 @@ fun getEclipseResource(ideaProject: Project): IResource? {
         return project
     }
 
-    return KotlinScriptEnvironment.getEclipseFile(ideaProject)
+    // A pooled script environment is shared by several files of one project
+    return KotlinScriptEnvironment.getEnvironment(ideaProject)?.let { it.javaProject.project }
 }
 
+/**
+ * Environment of script files. Files of the same project with the same script definition and resolved dependencies
+ * share one pooled environment. Environments which are idle for [KotlinPerformanceProperties.scriptEnvironmentIdleMinutes]
+ * are disposed, least recently used ones are disposed once their estimated size exceeds
+ * [KotlinPerformanceProperties.scriptEnvironmentsSizeMb]. Environments of files opened in editors
+ * (see [retainOpenFile]) and environments used by a running analysis (see [useEnvironment]) are never disposed by eviction.
+ */
 class KotlinScriptEnvironment private constructor(
         private val eclipseFile: IFile,
+        private val poolKey: PoolKey,
         val dependencies: ScriptDependencies?,
         disposable: Disposable
 ) : KotlinCommonEnvironment(disposable) {
@@ -135,7 +151,7 @@ class KotlinScriptEnvironment private constructor(
             ?.let { CliSamWithReceiverComponentContributor(it) }
             ?.also { StorageComponentContainerContributor.registerExtension(project, it) }
 
-        val index = JvmDependenciesIndexImpl(getRoots().toList())
+        val index = createDependenciesIndex()
 
         val area = project.extensionArea
         with(area.getExtensionPoint(PsiElementFinder.EP_NAME)) {
@@ -166,38 +182,142 @@ class KotlinScriptEnvironment private constructor(
 //        definition?.dependencyResolver?.also { project.registerService(DependenciesResolver::class.java, it) }
     }
 
+    private data class PoolKey(
+            val project: IProject,
+            val definition: ScriptDefinition?,
+            val dependencies: ScriptDependencies?
+    )
+
     companion object {
         private val KOTLIN_RUNTIME_PATH = KotlinClasspathContainer.LIB_RUNTIME_NAME.buildLibPath()
         private val KOTLIN_SCRIPT_RUNTIME_PATH = KotlinClasspathContainer.LIB_SCRIPT_RUNTIME_NAME.buildLibPath()
 
-        private val cachedEnvironment = CachedEnvironment<IFile, KotlinScriptEnvironment>()
+        // Rough estimation of the retained heap of an environment
+        private const val ENVIRONMENT_BASE_SIZE_BYTES = 16L * 1024 * 1024
+        private const val BYTES_PER_CLASSPATH_ROOT = 256L * 1024
+
+        private const val EVICTION_INTERVAL_MS = 60L * 1000
+
+        private val cachedEnvironment = CachedEnvironment<PoolKey, KotlinScriptEnvironment>()
+        private val fileKeys = ConcurrentHashMap<IFile, PoolKey>()
+        private val lastAccess = ConcurrentHashMap<PoolKey, Long>()
+
+        // Guards eviction against environments which are leased by analyses or belong to open editors
+        private val poolLock = Any()
+        private val usages = HashMap<KotlinScriptEnvironment, Int>()
+        private val openFiles = HashMap<IFile, Int>()
+
+        private val evictionJob = object : Job("Dispose idle Kotlin script environments") {
+            init {
+                isSystem = true
+                priority = DECORATE
+            }
+
+            override fun run(monitor: IProgressMonitor): IStatus {
+                evictEnvironments()
+                if (lastAccess.isNotEmpty()) {
+                    schedule(EVICTION_INTERVAL_MS)
+                }
+
+                return Status.OK_STATUS
+            }
+        }
 
         @JvmStatic
         fun getEnvironment(file: IFile): KotlinScriptEnvironment {
             checkIsScript(file)
 
-            return cachedEnvironment.getOrCreateEnvironment(file) {
-                KotlinScriptEnvironment(it, null, Disposer.newDisposable("Scripting Env ${file.asFile.absolutePath}"))
+            val key = fileKeys.computeIfAbsent(file) { poolKey(it, null) }
+            var created = false
+            val environment = cachedEnvironment.getOrCreateEnvironment(key) {
+                created = true
+                KotlinScriptEnvironment(file, it, it.dependencies, Disposer.newDisposable("Scripting Env ${file.asFile.absolutePath}"))
+                    .apply { addDependenciesToClasspath(it.dependencies) }
+            }
+
+            synchronized(poolLock) {
+                lastAccess[key] = System.currentTimeMillis()
+                if (created) {
+                    evictEnvironments(keep = key)
+                }
             }
+            if (created && evictionJob.state == Job.NONE) {
+                evictionJob.schedule(EVICTION_INTERVAL_MS)
+            }
+
+            return environment
         }
 
+        fun getEnvironment(project: Project): KotlinScriptEnvironment? {
+            val key = cachedEnvironment.getEclipseResource(project) ?: return null
+            val environment = cachedEnvironment.getEnvironmentIfCached(key) ?: return null
+            synchronized(poolLock) {
+                lastAccess.computeIfPresent(key) { _, _ -> System.currentTimeMillis() }
+            }
+
+            return environment
+        }
+
+        /**
+         * Runs [action] while [environment] is leased, so that the environment is not disposed by eviction meanwhile.
+         */
+        fun <T> useEnvironment(environment: KotlinScriptEnvironment, action: () -> T): T {
+            synchronized(poolLock) {
+                usages[environment] = (usages[environment] ?: 0) + 1
+            }
+
+            try {
+                return action()
+            } finally {
+                synchronized(poolLock) {
+                    val count = usages.getValue(environment) - 1
+                    if (count == 0) usages.remove(environment) else usages[environment] = count
+                    lastAccess.computeIfPresent(environment.poolKey) { _, _ -> System.currentTimeMillis() }
+                }
+            }
+        }
+
+        /**
+         * Marks [file] as opened in an editor. Its environment and parsed file are kept until [releaseOpenFile] is called.
+         */
+        @JvmStatic
+        fun retainOpenFile(file: IFile) {
+            synchronized(poolLock) {
+                openFiles[file] = (openFiles[file] ?: 0) + 1
+            }
+        }
+
+        /**
+         * @return `true` if [file] is not opened in any other editor
+         */
+        @JvmStatic
+        fun releaseOpenFile(file: IFile): Boolean = synchronized(poolLock) {
+            val count = openFiles[file] ?: return true
+            if (count <= 1) openFiles.remove(file) else openFiles[file] = count - 1
+            count <= 1
+        }
+
+        /**
+         * Detaches [file] from its pooled environment. The environment itself is disposed when it becomes idle.
+         */
         @JvmStatic
         fun removeKotlinEnvironment(file: IFile) {
             checkIsScript(file)
-            cachedEnvironment.removeEnvironment(file)
+            fileKeys.remove(file)
         }
 
         fun removeAllEnvironments() {
             cachedEnvironment.removeAllEnvironments()
+            synchronized(poolLock) {
+                lastAccess.clear()
+            }
+            fileKeys.keys.forEach { KotlinPsiManager.removeFile(it) }
         }
 
         fun removeEnvironmentIf(check: (KotlinCommonEnvironment) -> Boolean) {
-            cachedEnvironment.removeEnvironmentIf(check)
+            cachedEnvironment.removeEnvironmentIf(check).forEach { synchronized(poolLock) { removedFromPool(it) } }
         }
 
-        @JvmStatic
-        fun getEclipseFile(project: Project): IFile? = cachedEnvironment.getEclipseResource(project)
-
         fun isScript(file: IFile): Boolean =
                 EclipseScriptDefinitionProvider.isScript(FileScriptSource(file.asFile))
 
@@ -208,12 +328,49 @@ class KotlinScriptEnvironment private constructor(
         }
 
         fun updateDependencies(file: IFile, newDependencies: ScriptDependencies?) {
-            cachedEnvironment.replaceEnvironment(file) {
-                KotlinScriptEnvironment(file, newDependencies, Disposer.newDisposable("Scripting Env ${file.asFile.absolutePath}"))
-                    .apply { addDependenciesToClasspath(newDependencies) }
-            }
+            fileKeys[file] = poolKey(file, newDependencies)
             KotlinPsiManager.removeFile(file)
         }
+
+        private fun poolKey(file: IFile, dependencies: ScriptDependencies?) = PoolKey(
+                file.project,
+                EclipseScriptDefinitionProvider.definitionFor(FileScriptSource(file.asFile)),
+                dependencies)
+
+        private fun evictEnvironments(keep: PoolKey? = null): Unit = synchronized(poolLock) {
+            val properties = KotlinPerformanceProperties.workspaceInstance
+            val idleSince = System.currentTimeMillis() - properties.scriptEnvironmentIdleMinutes * 60L * 1000
+            val budget = properties.scriptEnvironmentsSizeMb.toLong() * 1024 * 1024
+
+            val sizes = lastAccess.keys.associateWith { key ->
+                cachedEnvironment.getEnvironmentIfCached(key)?.let { estimatedSize(it) } ?: 0L
+            }
+            var totalSize = sizes.values.sum()
+
+            // Least recently used environments go first, environments in use are always kept
+            for ((key, accessed) in lastAccess.entries.sortedBy { it.value }) {
+                if (key == keep || (accessed > idleSince && totalSize <= budget) || isInUse(key)) continue
+
+                cachedEnvironment.removeEnvironment(key)
+                removedFromPool(key)
+                totalSize -= sizes[key] ?: 0L
+            }
+        }
+
+        private fun isInUse(key: PoolKey): Boolean {
+            val environment = cachedEnvironment.getEnvironmentIfCached(key)
+            return (environment != null && environment in usages) ||
+                    fileKeys.any { (file, fileKey) -> fileKey == key && file in openFiles }
+        }
+
+        private fun removedFromPool(key: PoolKey) {
+            lastAccess.remove(key)
+            // Parsed files belong to the disposed environment
+            fileKeys.filterValues { it == key }.keys.forEach { KotlinPsiManager.removeFile(it) }
+        }
+
+        private fun estimatedSize(environment: KotlinScriptEnvironment): Long =
+                ENVIRONMENT_BASE_SIZE_BYTES + environment.getRoots().size * BYTES_PER_CLASSPATH_ROOT
     }
 
     private fun configureClasspath() {
@@ -337,7 +494,17 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
     val buildingProperties: KotlinBuildingProperties
         get() = projectBuildingProperties.takeIf { it.globalsOverridden } ?: KotlinBuildingProperties.workspaceInstance
 
-    val index by lazy { JvmDependenciesIndexImpl(getRoots().toList()) }
+    private var classpathFiles: List<File> = emptyList()
+
+    private var indexDisposable = newIndexDisposable()
+
+    @Volatile
+    private var dependenciesIndex: JvmDependenciesIndex? = null
+
+    val index: JvmDependenciesIndex
+        get() = dependenciesIndex ?: synchronized(this) {
+            dependenciesIndex ?: createDependenciesIndex(indexDisposable).also { dependenciesIndex = it }
+        }
 
     init {
         registerProjectDependenServices(javaProject)
@@ -366,13 +533,12 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
     }
 
     private fun registerCompilerPlugin(it: CompilerPlugin) {
-        val jarLoader = it.jarPath
+        val plugin = it.jarPath
                 ?.replace("\$KOTLIN_HOME", ProjectUtils.ktHome)
-                ?.let { URL("file://$it") }
-                ?.let { URLClassLoader(arrayOf(it), this::class.java.classLoader) }
+                ?.let { CompilerPluginCache.acquire(it, projectEnvironment.parentDisposable) }
 
-        val cliProcessor = jarLoader?.loadService<CommandLineProcessor>()
-        val registrar = jarLoader?.loadService<ComponentRegistrar>()
+        val cliProcessor = plugin?.cliProcessor
+        val registrar = plugin?.registrar
 
         if (cliProcessor != null && registrar != null) {
             with(cliProcessor) {
@@ -382,10 +548,6 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         }
     }
 
-    private inline fun <reified T : Any> ClassLoader.loadService(): T? =
-            ServiceLoader.load(T::class.java, this)
-                    .singleOrNull { it::class.java.classLoader == this }
-
     private fun parseOptions(args: List<String>): Map<String, List<String>> =
             args.asSequence()
                     .map { parsePluginOption("plugin:$it") }
@@ -400,11 +562,47 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         } catch (e: DependencyResolverException) {
             hasError = true
             e.resolvedFiles
-            e.resolvedFiles
         }
         tempFiles.forEach(::addToClasspath)
+        classpathFiles = tempFiles
+    }
+
+    /**
+     * Brings the classpath roots in line with the Java project without recreating the environment.
+     * Returns false if the classpath could not be resolved and the environment has to be recreated.
+     */
+    private fun updateClasspath(): Boolean = synchronized(this) {
+        if (hasError || !javaProject.exists()) return false
+
+        val files = try {
+            ProjectUtils.collectClasspathWithDependenciesForBuild(javaProject)
+        } catch (e: DependencyResolverException) {
+            return false
+        }
+        if (files == classpathFiles) return true
+
+        replaceClasspath(files)
+        classpathFiles = files
+
+        binaryDependenciesModule = null
+        topLevelCallablesIndex.invalidateLibraryCallables()
+
+        if (dependenciesIndex != null) {
+            // Indexes of unchanged jars are shared, so the new index has to be acquired before the old one is released
+            val oldDisposable = indexDisposable
+            indexDisposable = newIndexDisposable()
+            dependenciesIndex = createDependenciesIndex(indexDisposable)
+            Disposer.dispose(oldDisposable)
+        }
+
+        return true
     }
 
+    private fun newIndexDisposable(): Disposable =
+        Disposer.newDisposable("Dependencies index of ${eclipseProject.name}").also {
+            Disposer.register(projectEnvironment.parentDisposable, it)
+        }
+
     companion object {
         private val cachedEnvironment = CachedEnvironment<IProject, KotlinEnvironment>()
         private val environmentCreation = { eclipseProject: IProject ->
@@ -415,12 +613,32 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
         fun getEnvironment(eclipseProject: IProject): KotlinEnvironment =
             cachedEnvironment.getOrCreateEnvironment(eclipseProject, environmentCreation)
 
+        /**
+         * Updates the classpath of the cached environment in place, so that parsed files and analysis results of
+         * other projects survive. The environment is recreated if its classpath cannot be resolved completely.
+         */
+        @JvmStatic
+        fun updateClasspath(eclipseProject: IProject) {
+            val environment = cachedEnvironment.getEnvironmentIfCached(eclipseProject) ?: return
+            if (!environment.updateClasspath()) {
+                removeEnvironment(eclipseProject)
+                return
+            }
+
+            KotlinPsiManager.refreshProjectSourceFiles(eclipseProject)
+            KotlinTopLevelCallablesIndex.invalidateSourceCallables(eclipseProject)
+            KotlinAnalysisFileCache.resetCache()
+            KotlinAnalysisProjectCache.resetCache(eclipseProject)
+            EclipseJavaClassCache.invalidate(eclipseProject)
+        }
+
         @JvmStatic
         fun removeEnvironment(eclipseProject: IProject) {
             cachedEnvironment.removeEnvironment(eclipseProject)
             KotlinPsiManager.invalidateCachedProjectSourceFiles()
             KotlinAnalysisFileCache.resetCache()
             KotlinAnalysisProjectCache.resetCache(eclipseProject)
+            EclipseJavaClassCache.invalidate(eclipseProject)
         }
 
         fun removeEnvironmentIf(check: (KotlinCommonEnvironment) -> Boolean) {
@@ -430,6 +648,7 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
                 KotlinAnalysisFileCache.resetCache()
                 for (removedPrj in tempRemoved) {
                     KotlinAnalysisProjectCache.resetCache(removedPrj)
+                    EclipseJavaClassCache.invalidate(removedPrj)
                 }
             }
         }
@@ -440,6 +659,7 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
             KotlinPsiManager.invalidateCachedProjectSourceFiles()
             KotlinAnalysisFileCache.resetCache()
             KotlinAnalysisProjectCache.resetAllCaches()
+            EclipseJavaClassCache.invalidateAll()
         }
 
         @JvmStatic
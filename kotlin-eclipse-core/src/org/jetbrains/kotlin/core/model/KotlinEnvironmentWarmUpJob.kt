@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.SubMonitor
+import org.eclipse.core.runtime.jobs.Job
+import org.eclipse.jdt.core.JavaCore
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * Creates environments, dependency indexes and the first project analysis of all open Kotlin projects in background,
+ * so that the first editor, build or completion request for a project does not pay for them.
+ * Projects are prepared in parallel by threads of low priority. Analysis of a project gives way to interactive
+ * requests for it, see [KotlinAnalysisProjectCache.getAnalysisResultInBackground].
+ */
+class KotlinEnvironmentWarmUpJob : Job("Preparing Kotlin projects") {
+    init {
+        priority = DECORATE
+    }
+
+    override fun run(monitor: IProgressMonitor): IStatus {
+        val projects = ResourcesPlugin.getWorkspace().root.projects.filter { ProjectUtils.isAccessibleKotlinProject(it) }
+        if (projects.isEmpty()) return Status.OK_STATUS
+
+        val progress = SubMonitor.convert(monitor, name, projects.size)
+        val parallelism = minOf(projects.size, maxOf(1, Runtime.getRuntime().availableProcessors() / 2))
+        val executor = Executors.newFixedThreadPool(parallelism) {
+            Thread(it, "Kotlin warm-up").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+
+        try {
+            val futures = projects.map { project ->
+                executor.submit(Callable {
+                    warmUp(project, monitor)
+                    synchronized(progress) {
+                        progress.worked(1)
+                    }
+                })
+            }
+
+            for (future in futures) {
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    KotlinLogger.logError(e.cause ?: e)
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        return if (monitor.isCanceled) Status.CANCEL_STATUS else Status.OK_STATUS
+    }
+
+    private fun warmUp(project: IProject, monitor: IProgressMonitor) {
+        if (monitor.isCanceled || !ProjectUtils.isAccessibleKotlinProject(project)) return
+
+        // Accessing the index creates it together with the environment
+        KotlinEnvironment.getEnvironment(project).index
+        if (monitor.isCanceled) return
+
+        KotlinAnalysisProjectCache.getAnalysisResultInBackground(JavaCore.create(project)) { monitor.isCanceled }
+    }
+
+    companion object {
+        @JvmStatic
+        fun scheduleIfEnabled(delay: Long) {
+            if (KotlinPerformanceProperties.workspaceInstance.warmUpEnvironments) {
+                KotlinEnvironmentWarmUpJob().schedule(delay)
+            }
+        }
+    }
+}
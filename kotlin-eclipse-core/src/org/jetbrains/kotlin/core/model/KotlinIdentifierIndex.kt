@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.psi.tree.IElementType
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResourceChangeEvent
+import org.eclipse.core.resources.IResourceChangeListener
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtPsiUtil
+import org.jetbrains.kotlin.types.expressions.OperatorConventions
+import org.jetbrains.kotlin.util.OperatorNameConventions
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Persistent index from identifiers to their offsets in Kotlin source files. Find References uses it to open only
+ * the files which mention the searched name.
+ *
+ * Entries are checked against the resource modification stamp on each query and files changed since then are
+ * re-read, so the index does not need its own change listener for sources. Files changed in an editor but not yet
+ * saved are indexed from their parsed text and kept only in memory.
+ *
+ * Offsets are given in the text of the parsed file, i.e. with line separators converted to `\n`.
+ */
+object KotlinIdentifierIndex : IResourceChangeListener {
+    private const val INDEX_FOLDER_NAME = "identifierIndex"
+    private const val FORMAT_VERSION = 1
+    private const val OPERATOR_KEY_PREFIX = "operator:"
+
+    private val WORD_REGEX = "[\\p{L}_][\\p{L}\\p{N}_]*".toRegex()
+
+    // Tokens which may stand for a call of an operator function with the given names
+    private val operatorNames: Map<IElementType, List<String>> = hashMapOf<IElementType, MutableList<String>>().apply {
+        fun register(token: IElementType, name: Name) {
+            getOrPut(token) { arrayListOf() }.add(name.asString())
+        }
+
+        OperatorConventions.UNARY_OPERATION_NAMES.forEach { (token, name) -> register(token, name) }
+        OperatorConventions.BINARY_OPERATION_NAMES.forEach { (token, name) -> register(token, name) }
+        OperatorConventions.ASSIGNMENT_OPERATIONS.forEach { (token, name) ->
+            register(token, name)
+            OperatorConventions.ASSIGNMENT_OPERATION_COUNTERPARTS[token]
+                ?.let { OperatorConventions.BINARY_OPERATION_NAMES[it] }
+                ?.let { register(token, it) }
+        }
+        OperatorConventions.COMPARISON_OPERATIONS.forEach { register(it, OperatorNameConventions.COMPARE_TO) }
+        OperatorConventions.EQUALS_OPERATIONS.forEach { register(it, OperatorNameConventions.EQUALS) }
+        OperatorConventions.IN_OPERATIONS.forEach { register(it, OperatorNameConventions.CONTAINS) }
+
+        register(KtTokens.LBRACKET, OperatorNameConventions.GET)
+        register(KtTokens.LBRACKET, OperatorNameConventions.SET)
+        register(KtTokens.LPAR, OperatorNameConventions.INVOKE)
+        register(KtTokens.BY_KEYWORD, OperatorNameConventions.GET_VALUE)
+        register(KtTokens.BY_KEYWORD, OperatorNameConventions.SET_VALUE)
+        register(KtTokens.BY_KEYWORD, OperatorNameConventions.PROVIDE_DELEGATE)
+    }
+
+    private class FileEntry(
+        val modificationStamp: Long,
+        val textLength: Int,
+        val textHash: Int,
+        val occurrences: Map<String, IntArray>
+    )
+
+    // occurrences == null means that the parsed text is the same as the saved one
+    private class ParsedFileEntry(val modificationStamp: Long, val occurrences: Map<String, IntArray>?)
+
+    private class ProjectIndex(val entries: ConcurrentHashMap<String, FileEntry>) {
+        @Volatile
+        var changed = false
+    }
+
+    private val projectIndices = ConcurrentHashMap<IProject, ProjectIndex>()
+
+    private val parsedFileEntries = WeakHashMap<KtFile, ParsedFileEntry>()
+
+    private val indexFolder: File? by lazy {
+        Activator.getDefault()?.stateLocation?.append(INDEX_FOLDER_NAME)?.toFile()
+    }
+
+    /**
+     * Returns offsets of [name] for each of [files] which contains it. With [withOperators], offsets of operator
+     * tokens which may call a function named [name] are included as well.
+     */
+    fun findOccurrences(name: String, files: Collection<IFile>, withOperators: Boolean = false): Map<IFile, IntArray> {
+        val result = LinkedHashMap<IFile, IntArray>()
+        for (file in files) {
+            val occurrences = getOccurrences(file) ?: continue
+
+            val identifierOffsets = occurrences[name]
+            val operatorOffsets = if (withOperators) occurrences[OPERATOR_KEY_PREFIX + name] else null
+            val offsets = when {
+                operatorOffsets == null -> identifierOffsets
+                identifierOffsets == null -> operatorOffsets
+                else -> (identifierOffsets + operatorOffsets).apply { sort() }
+            }
+
+            if (offsets != null) {
+                result[file] = offsets
+            }
+        }
+
+        return result
+    }
+
+    fun save() {
+        projectIndices.forEach { (project, index) -> save(project, index) }
+    }
+
+    fun clear() {
+        projectIndices.clear()
+        synchronized(parsedFileEntries) {
+            parsedFileEntries.clear()
+        }
+        indexFolder?.deleteRecursively()
+    }
+
+    override fun resourceChanged(event: IResourceChangeEvent) {
+        val project = event.resource as? IProject ?: return
+        when (event.type) {
+            IResourceChangeEvent.PRE_CLOSE -> projectIndices.remove(project)?.let { save(project, it) }
+            IResourceChangeEvent.PRE_DELETE -> {
+                projectIndices.remove(project)
+                indexFile(project)?.delete()
+            }
+        }
+    }
+
+    internal fun computeOccurrences(text: CharSequence): Map<String, IntArray> {
+        val offsets = hashMapOf<String, MutableList<Int>>()
+        fun add(key: String, offset: Int) {
+            offsets.getOrPut(key) { arrayListOf() }.add(offset)
+        }
+
+        val lexer = KotlinLexer()
+        lexer.start(text)
+        while (true) {
+            val tokenType = lexer.tokenType ?: break
+            when (tokenType) {
+                KtTokens.IDENTIFIER -> add(KtPsiUtil.unquoteIdentifier(lexer.tokenText), lexer.tokenStart)
+
+                // Names in KDoc may be references to declarations
+                KtTokens.DOC_COMMENT -> WORD_REGEX.findAll(text.subSequence(lexer.tokenStart, lexer.tokenEnd)).forEach {
+                    add(it.value, lexer.tokenStart + it.range.first)
+                }
+
+                else -> operatorNames[tokenType]?.forEach { add(OPERATOR_KEY_PREFIX + it, lexer.tokenStart) }
+            }
+            lexer.advance()
+        }
+
+        return offsets.mapValues { it.value.toIntArray() }
+    }
+
+    private fun getOccurrences(file: IFile): Map<String, IntArray>? {
+        val entry = getFileEntry(file) ?: return null
+        val parsedFile = KotlinPsiManager.getCachedParsedFile(file) ?: return entry.occurrences
+
+        val parsedFileStamp = parsedFile.virtualFile?.modificationStamp ?: parsedFile.modificationStamp
+        val parsedEntry = synchronized(parsedFileEntries) { parsedFileEntries[parsedFile] }
+            ?.takeIf { it.modificationStamp == parsedFileStamp }
+            ?: run {
+                val text = parsedFile.text
+                val sameAsSaved = text.length == entry.textLength && text.hashCode() == entry.textHash
+                ParsedFileEntry(parsedFileStamp, if (sameAsSaved) null else computeOccurrences(text))
+                    .also { synchronized(parsedFileEntries) { parsedFileEntries[parsedFile] = it } }
+            }
+
+        return parsedEntry.occurrences ?: entry.occurrences
+    }
+
+    private fun getFileEntry(file: IFile): FileEntry? {
+        if (!file.exists()) return null
+
+        val index = getProjectIndex(file.project)
+        val path = file.projectRelativePath.toPortableString()
+        val stamp = file.modificationStamp
+
+        index.entries[path]?.takeIf { it.modificationStamp == stamp }?.let { return it }
+
+        val location = file.rawLocation ?: return null
+        val text = try {
+            FileUtil.loadFile(File(location.toOSString()), null, true)
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to index $file", e)
+            return null
+        }
+
+        return FileEntry(stamp, text.length, text.hashCode(), computeOccurrences(text)).also {
+            index.entries[path] = it
+            index.changed = true
+        }
+    }
+
+    private fun getProjectIndex(project: IProject): ProjectIndex =
+        projectIndices.computeIfAbsent(project) { ProjectIndex(load(it)) }
+
+    private fun load(project: IProject): ConcurrentHashMap<String, FileEntry> {
+        val entries = ConcurrentHashMap<String, FileEntry>()
+        val file = indexFile(project)?.takeIf { it.isFile } ?: return entries
+
+        try {
+            DataInputStream(BufferedInputStream(file.inputStream())).use { input ->
+                if (input.readInt() != FORMAT_VERSION || input.readUTF() != pluginVersion()) return entries
+
+                repeat(input.readInt()) {
+                    val path = input.readUTF()
+                    val stamp = input.readLong()
+                    val textLength = input.readInt()
+                    val textHash = input.readInt()
+                    val occurrences = HashMap<String, IntArray>()
+                    repeat(input.readInt()) {
+                        val name = input.readUTF()
+                        occurrences[name] = IntArray(input.readInt()) { input.readInt() }
+                    }
+                    entries[path] = FileEntry(stamp, textLength, textHash, occurrences)
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to load identifier index $file", e)
+            entries.clear()
+        }
+
+        return entries
+    }
+
+    @Synchronized
+    private fun save(project: IProject, index: ProjectIndex) {
+        if (!index.changed) return
+        val file = indexFile(project) ?: return
+        index.changed = false
+
+        // Entries of removed files are not needed anymore
+        index.entries.keys.removeIf { !project.getFile(it).exists() }
+
+        try {
+            file.parentFile.mkdirs()
+            val tempFile = File.createTempFile(file.nameWithoutExtension, ".tmp", file.parentFile)
+            DataOutputStream(BufferedOutputStream(tempFile.outputStream())).use { output ->
+                output.writeInt(FORMAT_VERSION)
+                output.writeUTF(pluginVersion())
+
+                val entries = index.entries.entries.toList()
+                output.writeInt(entries.size)
+                for ((path, entry) in entries) {
+                    output.writeUTF(path)
+                    output.writeLong(entry.modificationStamp)
+                    output.writeInt(entry.textLength)
+                    output.writeInt(entry.textHash)
+                    output.writeInt(entry.occurrences.size)
+                    for ((name, offsets) in entry.occurrences) {
+                        output.writeUTF(name)
+                        output.writeInt(offsets.size)
+                        offsets.forEach { output.writeInt(it) }
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: IOException) {
+            KotlinLogger.logError("Failed to save identifier index $file", e)
+        }
+    }
+
+    private fun pluginVersion(): String = Activator.getDefault()?.bundle?.version?.toString().orEmpty()
+
+    private fun indexFile(project: IProject): File? = indexFolder?.let { folder ->
+        File(folder, project.name.toByteArray(Charsets.UTF_8).joinToString("") { "%02x".format(it) } + ".idx")
+    }
+}
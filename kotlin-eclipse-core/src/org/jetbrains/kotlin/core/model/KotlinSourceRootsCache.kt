@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResource
+import org.eclipse.jdt.core.ElementChangedEvent
+import org.eclipse.jdt.core.IClasspathEntry
+import org.eclipse.jdt.core.IElementChangedListener
+import org.eclipse.jdt.core.IJavaElementDelta
+import org.eclipse.jdt.core.IJavaProject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches names of top-level folders of projects which are source roots in their raw classpath.
+ * The entry of a project is dropped when its classpath is changed or the project is closed or removed.
+ *
+ * Source roots are computed outside of the map, so an invalidation may happen while they are computed from the old
+ * classpath. Each invalidation increments the version of the project, and roots computed at an older version are
+ * not kept in the cache.
+ */
+object KotlinSourceRootsCache : IElementChangedListener {
+    private val sourceRoots = ConcurrentHashMap<IProject, Set<String>>()
+
+    // Versions are never removed: a recreated project must not get a version used before
+    private val versions = ConcurrentHashMap<IProject, AtomicLong>()
+
+    fun isInSourceRoot(resource: IResource, javaProject: IJavaProject): Boolean {
+        val roots = sourceRoots[javaProject.project] ?: computeAndCache(javaProject)
+        return resource.fullPath.segment(1) in roots
+    }
+
+    private fun computeAndCache(javaProject: IJavaProject): Set<String> {
+        val project = javaProject.project
+        val version = getVersion(project).get()
+        val roots = computeSourceRoots(javaProject)
+
+        val cached = sourceRoots.putIfAbsent(project, roots)
+        if (cached != null) return cached
+
+        // The classpath could change after the roots were computed, but the cache entry was removed before they
+        // were put. The invalidation is seen here because the version is incremented before the entry is removed
+        if (getVersion(project).get() != version) {
+            sourceRoots.remove(project, roots)
+        }
+
+        return roots
+    }
+
+    private fun invalidate(project: IProject) {
+        getVersion(project).incrementAndGet()
+        sourceRoots.remove(project)
+    }
+
+    private fun getVersion(project: IProject): AtomicLong = versions.computeIfAbsent(project) { AtomicLong() }
+
+    override fun elementChanged(event: ElementChangedEvent) {
+        invalidateIfClasspathChanged(event.delta)
+    }
+
+    private fun invalidateIfClasspathChanged(delta: IJavaElementDelta) {
+        val element = delta.element
+        if (element is IJavaProject) {
+            val flags = delta.flags
+            if (delta.kind != IJavaElementDelta.CHANGED ||
+                    (flags and (IJavaElementDelta.F_CLASSPATH_CHANGED or IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED or
+                            IJavaElementDelta.F_OPENED or IJavaElementDelta.F_CLOSED)) != 0) {
+                invalidate(element.project)
+            }
+            return
+        }
+
+        delta.affectedChildren.forEach { invalidateIfClasspathChanged(it) }
+    }
+
+    private fun computeSourceRoots(javaProject: IJavaProject): Set<String> =
+            javaProject.rawClasspath
+                    .filter { it.entryKind == IClasspathEntry.CPE_SOURCE }
+                    .mapNotNullTo(hashSetOf()) { it.path.segment(1) }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.descriptors.CallableDescriptor
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.ClassifierDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.descriptors.TypeParameterDescriptor
+import org.jetbrains.kotlin.load.java.descriptors.JavaClassDescriptor
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtReferenceExpression
+import org.jetbrains.kotlin.psi.KtTypeReference
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.calls.util.getResolvedCall
+import org.jetbrains.kotlin.resolve.descriptorUtil.fqNameSafe
+import org.jetbrains.kotlin.types.KotlinType
+
+/**
+ * Returns fully qualified names of Java classes which analysis of [file] depends on. Besides the classes named in
+ * the file, these are classes of inferred types, of parameters of called functions (e.g. SAM interfaces) and Java
+ * supertypes of used classes, whose members can be used without naming the class.
+ */
+internal fun collectReferencedJavaTypes(file: KtFile, bindingContext: BindingContext): Set<String> {
+    val collector = JavaTypesCollector()
+    PsiTreeUtil.processElements(file) { element ->
+        when (element) {
+            is KtTypeReference -> collector.addType(bindingContext[BindingContext.TYPE, element])
+            is KtDeclaration -> collector.addDescriptor(bindingContext[BindingContext.DECLARATION_TO_DESCRIPTOR, element])
+            is KtExpression -> {
+                collector.addType(bindingContext.getType(element))
+                if (element is KtReferenceExpression) {
+                    collector.addDescriptor(bindingContext[BindingContext.REFERENCE_TARGET, element])
+                }
+                element.getResolvedCall(bindingContext)?.let {
+                    collector.addDescriptor(it.resultingDescriptor)
+                    collector.addDescriptor(it.resultingDescriptor.original)
+                }
+            }
+        }
+        true
+    }
+
+    return collector.javaTypes
+}
+
+/**
+ * Returns `true` if [fqName] or one of its containing classes is in [changedTypes].
+ */
+internal fun isChangedJavaType(fqName: String, changedTypes: Set<String>): Boolean {
+    var end = fqName.length
+    while (end > 0) {
+        if (fqName.substring(0, end) in changedTypes) return true
+        end = fqName.lastIndexOf('.', end - 1)
+    }
+
+    return false
+}
+
+private class JavaTypesCollector {
+    val javaTypes = hashSetOf<String>()
+
+    private val visited = hashSetOf<ClassifierDescriptor>()
+
+    fun addDescriptor(descriptor: DeclarationDescriptor?) {
+        when (descriptor) {
+            is ClassifierDescriptor -> addClassifier(descriptor)
+            is CallableDescriptor -> {
+                addClassifier(descriptor.containingDeclaration as? ClassDescriptor)
+                addType(descriptor.returnType)
+                descriptor.extensionReceiverParameter?.let { addType(it.type) }
+                descriptor.valueParameters.forEach { addType(it.type) }
+            }
+        }
+    }
+
+    fun addType(type: KotlinType?) {
+        if (type == null) return
+
+        addClassifier(type.constructor.declarationDescriptor)
+        type.arguments.forEach {
+            if (!it.isStarProjection) addType(it.type)
+        }
+    }
+
+    private fun addClassifier(classifier: ClassifierDescriptor?) {
+        if (classifier == null || !visited.add(classifier)) return
+
+        when (classifier) {
+            is ClassDescriptor -> {
+                if (classifier is JavaClassDescriptor) {
+                    javaTypes.add(classifier.fqNameSafe.asString())
+                }
+                classifier.typeConstructor.supertypes.forEach { addType(it) }
+            }
+            is TypeParameterDescriptor -> classifier.upperBounds.forEach { addType(it) }
+        }
+    }
+}
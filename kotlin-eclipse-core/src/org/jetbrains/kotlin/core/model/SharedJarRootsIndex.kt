@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
+
+/**
+ * Package indexes over jar roots, shared between environments which have the same jars on their classpath.
+ * Each index is reference counted and dropped once the last environment using it is disposed.
+ */
+object SharedJarRootsIndex {
+    private class Entry(val index: JvmDependenciesIndex) {
+        var references = 0
+    }
+
+    private val entries = HashMap<List<JavaRoot>, Entry>()
+
+    fun acquire(jarRoots: List<JavaRoot>, disposable: Disposable): JvmDependenciesIndex {
+        val entry = synchronized(entries) {
+            entries.getOrPut(jarRoots) { Entry(JvmDependenciesIndexImpl(jarRoots)) }
+                .also { it.references++ }
+        }
+        Disposer.register(disposable, Disposable { release(jarRoots) })
+
+        return entry.index
+    }
+
+    private fun release(jarRoots: List<JavaRoot>) = synchronized(entries) {
+        val entry = entries[jarRoots] ?: return@synchronized
+        if (--entry.references == 0) {
+            entries.remove(jarRoots)
+        }
+    }
+}
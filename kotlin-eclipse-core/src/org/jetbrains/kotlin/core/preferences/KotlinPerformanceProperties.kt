@@ -0,0 +1,37 @@
+package org.jetbrains.kotlin.core.preferences
+
+import org.eclipse.core.runtime.preferences.IScopeContext
+import org.eclipse.core.runtime.preferences.InstanceScope
+import org.jetbrains.kotlin.core.Activator
+
+class KotlinPerformanceProperties(scope: IScopeContext = InstanceScope.INSTANCE) :
+    Preferences(scope, Activator.PLUGIN_ID) {
+
+    // Note: default values are defined in preferences.ini
+    var analysisCacheSizeMb by IntPreference(DEFAULT_ANALYSIS_CACHE_SIZE_MB)
+
+    // Maximal number of output folders compiled at once, 0 means the number of available processors
+    var compilerParallelism by IntPreference(DEFAULT_COMPILER_PARALLELISM)
+
+    // Maximal number of threads analyzing sources of one project, 0 means the number of available processors
+    var analysisParallelism by IntPreference(DEFAULT_ANALYSIS_PARALLELISM)
+
+    // Whether environments and analysis of open Kotlin projects are prepared in background at startup
+    var warmUpEnvironments by BooleanPreference()
+
+    // Estimated heap which pooled script environments may take before least recently used ones are disposed
+    var scriptEnvironmentsSizeMb by IntPreference(DEFAULT_SCRIPT_ENVIRONMENTS_SIZE_MB)
+
+    // Script environments which are not used for this time are disposed
+    var scriptEnvironmentIdleMinutes by IntPreference(DEFAULT_SCRIPT_ENVIRONMENT_IDLE_MINUTES)
+
+    companion object {
+        const val DEFAULT_ANALYSIS_CACHE_SIZE_MB = 256
+        const val DEFAULT_COMPILER_PARALLELISM = 0
+        const val DEFAULT_ANALYSIS_PARALLELISM = 0
+        const val DEFAULT_SCRIPT_ENVIRONMENTS_SIZE_MB = 512
+        const val DEFAULT_SCRIPT_ENVIRONMENT_IDLE_MINUTES = 10
+
+        val workspaceInstance by lazy { KotlinPerformanceProperties() }
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.psi.search.GlobalSearchScope
+import org.eclipse.jdt.core.IMember
+import org.eclipse.jdt.core.IJavaProject
+import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
+import org.jetbrains.kotlin.builtins.jvm.JvmBuiltInsPackageFragmentProvider
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.JvmTarget
+import org.jetbrains.kotlin.config.LanguageVersionSettings
+import org.jetbrains.kotlin.context.ContextForNewModule
+import org.jetbrains.kotlin.context.ProjectContext
+import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassFinder
+import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaClass
+import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaElementUtil
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
+import org.jetbrains.kotlin.descriptors.impl.ModuleDescriptorImpl
+import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.load.java.lazy.ModuleClassResolver
+import org.jetbrains.kotlin.load.java.structure.JavaClass
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.resolve.BindingTraceContext
+import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
+import org.jetbrains.kotlin.resolve.jvm.modules.JavaModuleResolver
+import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice
+
+/**
+ * Module with descriptors of the binary dependencies (JDK, libraries) of an environment.
+ *
+ * Descriptors of libraries do not depend on project sources, so the module is created once per
+ * [KotlinCommonEnvironment] and reused by every source analysis in this environment. The module is dropped
+ * when the classpath of the environment changes.
+ *
+ * The module is used by concurrent analyses (editors, project analysis and its partitions). Its descriptors
+ * are computed under the lock of its storage manager, and its trace discards all writes, see [DiscardingBindingTrace],
+ * so no state is shared between the analyses besides the descriptors themselves.
+ */
+class BinaryDependenciesModule private constructor(
+    val builtIns: JvmBuiltIns,
+    val module: ModuleDescriptorImpl,
+    val optionalBuiltInsModule: ModuleDescriptor,
+    val javaDescriptorResolver: JavaDescriptorResolver,
+    val packagePartProvider: KotlinPackagePartProvider,
+    private val jvmTarget: JvmTarget,
+    private val languageVersionSettings: LanguageVersionSettings
+) {
+    // Compiler flags are not compared: changing them recreates the environment
+    private fun isApplicable(jvmTarget: JvmTarget, languageVersionSettings: LanguageVersionSettings): Boolean =
+        this.jvmTarget == jvmTarget &&
+                this.languageVersionSettings.languageVersion == languageVersionSettings.languageVersion &&
+                this.languageVersionSettings.apiVersion == languageVersionSettings.apiVersion
+
+    companion object {
+        fun getOrCreate(
+            environment: KotlinCommonEnvironment,
+            javaProject: IJavaProject?,
+            jvmTarget: JvmTarget,
+            languageVersionSettings: LanguageVersionSettings
+        ): BinaryDependenciesModule = synchronized(environment) {
+            environment.binaryDependenciesModule
+                ?.takeIf { it.isApplicable(jvmTarget, languageVersionSettings) }
+                ?: create(environment, javaProject, jvmTarget, languageVersionSettings)
+                    .also { environment.binaryDependenciesModule = it }
+        }
+
+        private fun create(
+            environment: KotlinCommonEnvironment,
+            javaProject: IJavaProject?,
+            jvmTarget: JvmTarget,
+            languageVersionSettings: LanguageVersionSettings
+        ): BinaryDependenciesModule {
+            val project = environment.project
+            val projectContext = ProjectContext(project, "context for binary dependencies of ${project.name}")
+
+            val builtIns = JvmBuiltIns(projectContext.storageManager, JvmBuiltIns.Kind.FROM_DEPENDENCIES)
+            val dependenciesContext = ContextForNewModule(
+                projectContext,
+                Name.special("<dependencies of ${environment.configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
+                builtIns,
+                null
+            )
+            builtIns.builtInsModule = dependenciesContext.module
+
+            val optionalBuiltInsModule = JvmBuiltIns(projectContext.storageManager, JvmBuiltIns.Kind.FROM_CLASS_LOADER)
+                .apply { initialize(dependenciesContext.module, true) }
+                .builtInsModule
+
+            // Libraries never refer to project sources, so every class is resolved in this module
+            val moduleClassResolver = TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver(GlobalSearchScope.EMPTY_SCOPE)
+            val packagePartProvider = KotlinPackagePartProvider(environment)
+
+            val container = createContainerForTopDownAnalyzerForJvm(
+                dependenciesContext,
+                DiscardingBindingTrace(),
+                DeclarationProviderFactory.EMPTY,
+                GlobalSearchScope.allScope(project),
+                LookupTracker.DO_NOTHING,
+                packagePartProvider,
+                jvmTarget,
+                languageVersionSettings,
+                moduleClassResolver,
+                javaProject,
+                project.getService(JavaModuleResolver::class.java),
+                null,
+                EclipseJavaClassFinder.Mode.BINARIES
+            ).apply {
+                initJvmBuiltInsForTopDownAnalysis()
+            }
+
+            val javaDescriptorResolver = container.get<JavaDescriptorResolver>()
+            moduleClassResolver.compiledCodeResolver = javaDescriptorResolver
+
+            dependenciesContext.setDependencies(listOfNotNull(dependenciesContext.module, optionalBuiltInsModule))
+            dependenciesContext.initializeModuleContents(
+                CompositePackageFragmentProvider(
+                    listOf(
+                        javaDescriptorResolver.packageFragmentProvider,
+                        container.get<JvmBuiltInsPackageFragmentProvider>()
+                    ), ""
+                )
+            )
+
+            return BinaryDependenciesModule(
+                builtIns,
+                dependenciesContext.module,
+                optionalBuiltInsModule,
+                javaDescriptorResolver,
+                packagePartProvider,
+                jvmTarget,
+                languageVersionSettings
+            )
+        }
+    }
+}
+
+/**
+ * Trace of the shared [BinaryDependenciesModule]. Resolution of library descriptors does not read back what it
+ * writes to the trace, and diagnostics of libraries are not shown, so writes are dropped. This keeps the trace
+ * empty for the whole life of the environment and makes it safe to use from several threads.
+ */
+private class DiscardingBindingTrace : BindingTraceContext() {
+    override fun <K, V> record(slice: WritableSlice<K, V>, key: K, value: V) {
+    }
+
+    override fun <K> record(slice: WritableSlice<K, Boolean>, key: K) {
+    }
+
+    override fun recordType(expression: KtExpression, type: KotlinType?) {
+    }
+
+    override fun report(diagnostic: Diagnostic) {
+    }
+
+    override fun wantsDiagnostics(): Boolean = false
+}
+
+/**
+ * Resolves library classes in the shared [BinaryDependenciesModule] and everything else
+ * (Java sources, Kotlin light classes) in the module of the current analysis.
+ */
+class EclipseModuleClassResolver(private val compiledCodeResolver: JavaDescriptorResolver) : ModuleClassResolver {
+    lateinit var sourceCodeResolver: JavaDescriptorResolver
+
+    override fun resolveClass(javaClass: JavaClass): ClassDescriptor? {
+        val resolver = if (javaClass.isFromLibrary()) compiledCodeResolver else sourceCodeResolver
+        return resolver.resolveClass(javaClass)
+    }
+
+    private fun JavaClass.isFromLibrary(): Boolean {
+        val element = (this as? EclipseJavaClass)?.binding?.javaElement as? IMember ?: return false
+        return element.isBinary && !EclipseJavaElementUtil.isKotlinLightClass(element)
+    }
+}
@@ -18,11 +18,9 @@ package org.jetbrains.kotlin.core.resolve
 
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiFileFactory
-import com.intellij.psi.search.GlobalSearchScope
 import org.eclipse.jdt.core.IJavaProject
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
-import org.jetbrains.kotlin.builtins.jvm.JvmBuiltInsPackageFragmentProvider
 import org.jetbrains.kotlin.cli.jvm.compiler.CliBindingTrace
 import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.config.CommonConfigurationKeys
@@ -40,11 +38,11 @@ import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
 import org.jetbrains.kotlin.core.preferences.languageVersionSettings
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassFinder
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.core.utils.asResource
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider
 import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
-import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
 import org.jetbrains.kotlin.idea.KotlinLanguage
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.name.Name
@@ -55,7 +53,6 @@ import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtens
 import org.jetbrains.kotlin.resolve.jvm.modules.JavaModuleResolver
 import org.jetbrains.kotlin.resolve.jvm.platform.JvmPlatformConfigurator
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer
-import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
 import org.jetbrains.kotlin.resolve.scopes.MemberScope
@@ -222,15 +219,6 @@ object EclipseAnalyzerFacadeForJVM {
         analyzerService: PlatformDependentAnalyzerServices? = null
     ): AnalysisResultWithProvider {
         val project = environment.project
-        val moduleContext = createModuleContext(project, environment.configuration, true)
-        val storageManager = moduleContext.storageManager
-        val module = moduleContext.module
-
-        val providerFactory = FileBasedDeclarationProviderFactory(moduleContext.storageManager, allFiles)
-        val trace = CliBindingTrace()
-
-        val sourceScope = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, filesToAnalyze)
-        val moduleClassResolver = TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver(sourceScope)
 
         val languageVersionSettings =
             javaProject?.project?.let { KotlinEnvironment.getEnvironment(it).compilerProperties.languageVersionSettings }
@@ -239,52 +227,17 @@ object EclipseAnalyzerFacadeForJVM {
                     LanguageVersionSettingsImpl.DEFAULT.apiVersion
                 )
 
+        val dependencies = BinaryDependenciesModule.getOrCreate(environment, javaProject, jvmTarget, languageVersionSettings)
 
-        val optionalBuiltInsModule = JvmBuiltIns(storageManager, JvmBuiltIns.Kind.FROM_CLASS_LOADER)
-            .apply { initialize(module, true) }
-            .builtInsModule
-
-        val dependencyModule = run {
-            val dependenciesContext = ContextForNewModule(
-                moduleContext, Name.special(
-                    "<dependencies of ${
-                        environment.configuration.getNotNull(
-                            CommonConfigurationKeys.MODULE_NAME
-                        )
-                    }>"
-                ),
-                module.builtIns, null
-            )
-
-            val dependencyScope = GlobalSearchScope.notScope(sourceScope)
-            val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
-                dependenciesContext,
-                trace,
-                DeclarationProviderFactory.EMPTY,
-                dependencyScope,
-                LookupTracker.DO_NOTHING,
-                KotlinPackagePartProvider(environment),
-                jvmTarget,
-                languageVersionSettings,
-                moduleClassResolver,
-                javaProject,
-                environment.project.getService(JavaModuleResolver::class.java),
-                null
-            )
+        val moduleContext = createModuleContext(project, environment.configuration, dependencies.builtIns)
+        val storageManager = moduleContext.storageManager
+        val module = moduleContext.module
 
-            moduleClassResolver.compiledCodeResolver = dependenciesContainer.get<JavaDescriptorResolver>()
+        val providerFactory = FileBasedDeclarationProviderFactory(moduleContext.storageManager, allFiles)
+        val trace = CliBindingTrace()
 
-            dependenciesContext.setDependencies(listOfNotNull(dependenciesContext.module, optionalBuiltInsModule))
-            dependenciesContext.initializeModuleContents(
-                CompositePackageFragmentProvider(
-                    listOf(
-                        moduleClassResolver.compiledCodeResolver.packageFragmentProvider,
-                        dependenciesContainer.get<JvmBuiltInsPackageFragmentProvider>()
-                    ), ""
-                )
-            )
-            dependenciesContext.module
-        }
+        val sourceScope = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, filesToAnalyze)
+        val moduleClassResolver = EclipseModuleClassResolver(dependencies.javaDescriptorResolver)
 
         val container = createContainerForTopDownAnalyzerForJvm(
             moduleContext,
@@ -292,16 +245,15 @@ object EclipseAnalyzerFacadeForJVM {
             providerFactory,
             sourceScope,
             LookupTracker.DO_NOTHING,
-            KotlinPackagePartProvider(environment),
+            dependencies.packagePartProvider,
             jvmTarget,
             languageVersionSettings,
             moduleClassResolver,
             javaProject,
             environment.project.getService(JavaModuleResolver::class.java),
-            analyzerService
-        ).apply {
-            initJvmBuiltInsForTopDownAnalysis()
-        }
+            analyzerService,
+            EclipseJavaClassFinder.Mode.SOURCES
+        )
 
         moduleClassResolver.sourceCodeResolver = container.get<JavaDescriptorResolver>()
 
@@ -313,8 +265,8 @@ object EclipseAnalyzerFacadeForJVM {
         }
 
         module.setDependencies(
-            listOfNotNull(module, dependencyModule, optionalBuiltInsModule),
-            setOf(dependencyModule)
+            listOfNotNull(module, dependencies.module, dependencies.optionalBuiltInsModule),
+            setOf(dependencies.module)
         )
         module.initialize(
             CompositePackageFragmentProvider(
@@ -344,22 +296,14 @@ object EclipseAnalyzerFacadeForJVM {
     private fun createModuleContext(
         project: Project,
         configuration: CompilerConfiguration,
-        createBuiltInsFromModule: Boolean
+        builtIns: JvmBuiltIns
     ): MutableModuleContext {
         val projectContext = ProjectContext(project, "context for project ${project.name}")
-        val builtIns = JvmBuiltIns(
-            projectContext.storageManager,
-            if (createBuiltInsFromModule) JvmBuiltIns.Kind.FROM_DEPENDENCIES else JvmBuiltIns.Kind.FROM_CLASS_LOADER
-        )
         return ContextForNewModule(
             projectContext,
             Name.special("<${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
             builtIns,
             null
-        ).apply {
-            if (createBuiltInsFromModule) {
-                builtIns.builtInsModule = module
-            }
-        }
+        )
     }
 }
\ No newline at end of file
@@ -87,6 +87,15 @@ public class KotlinPackagePartProvider(private val environment: KotlinCommonEnvi
         return result
     }
 
+    @Synchronized
+    fun getAllPackageNames(): Set<String> {
+        val roots = notLoadedRoots.toList()
+        notLoadedRoots.clear()
+        loadRoots(roots, "<all packages>")
+
+        return loadedModules.flatMapTo(hashSetOf()) { it.mapping.packageFqName2Parts.keys }
+    }
+
     private fun processNotLoadedRelevantRoots(packageFqName: String) {
         if (notLoadedRoots.isEmpty()) return
 
@@ -102,7 +111,11 @@ public class KotlinPackagePartProvider(private val environment: KotlinCommonEnvi
         }
         notLoadedRoots.removeAll(relevantRoots)
 
-        for (root in relevantRoots) {
+        loadRoots(relevantRoots, packageFqName)
+    }
+
+    private fun loadRoots(roots: List<VirtualFile>, packageFqName: String) {
+        for (root in roots) {
             val metaInf = root.findChild("META-INF") ?: continue
             val moduleFiles = metaInf.children.filter { it.name.endsWith(ModuleMapping.MAPPING_FILE_EXT) }
             for (moduleFile: VirtualFile in moduleFiles) {
@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.jdt.core.Flags
+import org.eclipse.jdt.core.ICompilationUnit
+import org.eclipse.jdt.core.IJavaElement
+import org.eclipse.jdt.core.IMethod
+import org.eclipse.jdt.core.JavaCore
+import org.eclipse.jdt.core.JavaModelException
+import org.eclipse.jdt.core.search.IJavaSearchConstants
+import org.eclipse.jdt.core.search.IJavaSearchScope
+import org.eclipse.jdt.core.search.MethodNameMatch
+import org.eclipse.jdt.core.search.MethodNameMatchRequestor
+import org.eclipse.jdt.core.search.SearchEngine
+import org.eclipse.jdt.core.search.SearchPattern
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.descriptors.CallableDescriptor
+import org.jetbrains.kotlin.descriptors.CallableMemberDescriptor
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.ClassKind
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.psi.*
+import org.jetbrains.kotlin.resolve.descriptorUtil.classId
+import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
+import java.util.TreeMap
+import java.util.concurrent.ConcurrentHashMap
+
+sealed class CallableContainer {
+    data class Package(val fqName: FqName) : CallableContainer()
+
+    data class ObjectDeclaration(val classId: ClassId) : CallableContainer()
+
+    // Java class which declares static methods
+    data class JavaClass(val classId: ClassId) : CallableContainer()
+}
+
+/**
+ * Callable with the name [name] declared in [container].
+ */
+data class IndexedCallable(val name: String, val container: CallableContainer)
+
+/**
+ * In-memory index of names of top-level functions and properties, of members of objects and of static methods
+ * of Java classes used to complete callables which are not imported yet. Extensions are keyed by the short name
+ * of their receiver type, so only extensions applicable to one of the receiver types (or to a type parameter)
+ * are returned.
+ *
+ * Callables from libraries are indexed once per environment. Callables from sources are indexed once per project
+ * and then reindexed only for Kotlin files reported by [sourceFileChanged] and Java compilation units reported
+ * by [javaSourceChanged].
+ */
+class KotlinTopLevelCallablesIndex(private val environment: KotlinCommonEnvironment) {
+    @Volatile
+    private var libraryCallables: CallableNames? = null
+
+    /**
+     * @param receiverTypeNames short names of receiver types and of all their supertypes
+     * @param allowNoReceiver whether callables which are not extensions are returned
+     */
+    fun findCallables(
+        prefix: String,
+        receiverTypeNames: Set<String>,
+        allowNoReceiver: Boolean,
+        moduleDescriptor: ModuleDescriptor
+    ): Set<IndexedCallable> {
+        val result = linkedSetOf<IndexedCallable>()
+
+        getLibraryCallables(moduleDescriptor).find(prefix, receiverTypeNames, allowNoReceiver, result)
+
+        val javaProject = environment.javaProject
+        for (project in ProjectUtils.getDependencyProjects(javaProject) + javaProject.project) {
+            getSourceCallables(project).find(prefix, receiverTypeNames, allowNoReceiver, result)
+        }
+
+        return result
+    }
+
+    fun invalidateLibraryCallables() {
+        libraryCallables = null
+    }
+
+    private fun getLibraryCallables(moduleDescriptor: ModuleDescriptor): CallableNames {
+        libraryCallables?.let { return it }
+
+        return synchronized(this) {
+            libraryCallables ?: buildLibraryCallables(moduleDescriptor).also { libraryCallables = it }
+        }
+    }
+
+    private fun buildLibraryCallables(moduleDescriptor: ModuleDescriptor): CallableNames {
+        val dependencies = environment.binaryDependenciesModule
+        val module = dependencies?.module ?: moduleDescriptor
+        val packagePartProvider = dependencies?.packagePartProvider ?: KotlinPackagePartProvider(environment)
+
+        val result = CallableNames()
+        for (packageName in packagePartProvider.getAllPackageNames()) {
+            val packageFqName = FqName(packageName)
+            val scope = module.getPackage(packageFqName).memberScope
+            val container = CallableContainer.Package(packageFqName)
+            scope.getContributedDescriptors(DescriptorKindFilter.CALLABLES)
+                .filterIsInstance<CallableDescriptor>()
+                .forEach { result.add(IndexEntry(it.name.asString(), receiverTypeName(it), container)) }
+
+            scope.getContributedDescriptors(DescriptorKindFilter.CLASSIFIERS)
+                .filterIsInstance<ClassDescriptor>()
+                .forEach { collectLibraryObjectCallables(it, result) }
+        }
+
+        collectLibraryJavaStatics(result)
+
+        return result
+    }
+
+    private fun collectLibraryObjectCallables(classDescriptor: ClassDescriptor, result: CallableNames) {
+        if (!classDescriptor.visibility.isPublicAPI) return
+
+        val classId = classDescriptor.classId ?: return
+        if (classDescriptor.kind == ClassKind.OBJECT) {
+            val container = CallableContainer.ObjectDeclaration(classId)
+            classDescriptor.unsubstitutedMemberScope.getContributedDescriptors(DescriptorKindFilter.CALLABLES)
+                .filterIsInstance<CallableMemberDescriptor>()
+                .filter { it.kind.isReal && it.visibility.isPublicAPI }
+                .forEach { result.add(IndexEntry(it.name.asString(), receiverTypeName(it), container)) }
+        }
+
+        classDescriptor.unsubstitutedInnerClassesScope.getContributedDescriptors(DescriptorKindFilter.CLASSIFIERS)
+            .filterIsInstance<ClassDescriptor>()
+            .forEach { collectLibraryObjectCallables(it, result) }
+    }
+
+    // Static methods of Java libraries are collected by one search when the index is built
+    private fun collectLibraryJavaStatics(result: CallableNames) {
+        val javaProject = environment.javaProject
+        if (!javaProject.exists()) return
+
+        val projects = ProjectUtils.getDependencyProjects(javaProject).map { JavaCore.create(it) } + javaProject
+        val scope = SearchEngine.createJavaSearchScope(
+            projects.toTypedArray<IJavaElement>(),
+            IJavaSearchScope.APPLICATION_LIBRARIES
+        )
+
+        searchJavaStatics(scope) { method, container -> result.add(IndexEntry(method.elementName, null, container)) }
+    }
+
+    companion object {
+        private val projectSourceCallables = ConcurrentHashMap<IProject, ProjectSourceCallables>()
+
+        /**
+         * Makes [file] to be reindexed on the next request. Called for added, removed and changed source files.
+         */
+        @JvmStatic
+        fun sourceFileChanged(file: IFile) {
+            projectSourceCallables[file.project]?.fileChanged(file)
+        }
+
+        /**
+         * Makes static methods of [compilationUnit] to be reindexed on the next request.
+         * Called for added, removed and changed Java compilation units.
+         */
+        @JvmStatic
+        fun javaSourceChanged(compilationUnit: ICompilationUnit) {
+            val project = compilationUnit.javaProject?.project ?: return
+            projectSourceCallables[project]?.compilationUnitChanged(compilationUnit.primary)
+        }
+
+        /**
+         * Drops callables of [project] sources, e.g. when the project is removed or its source folders are changed.
+         */
+        @JvmStatic
+        fun invalidateSourceCallables(project: IProject) {
+            projectSourceCallables.remove(project)
+        }
+
+        private fun getSourceCallables(project: IProject): ProjectSourceCallables =
+            projectSourceCallables.computeIfAbsent(project) { ProjectSourceCallables(it) }
+    }
+}
+
+// Receiver key of extensions whose receiver is a type parameter or a type which can't be named by a short name
+private const val ANY_RECEIVER = "*"
+
+private data class IndexEntry(val name: String, val receiverTypeName: String?, val container: CallableContainer)
+
+/**
+ * Names of callables which are not extensions and names of extensions grouped by the short name of their receiver
+ * type. The same entry may be added several times (e.g. overloads), it is removed when all of its copies are removed.
+ */
+private class CallableNames {
+    private val nonExtensions = TreeMap<String, MutableMap<CallableContainer, Int>>(String.CASE_INSENSITIVE_ORDER)
+    private val extensions = hashMapOf<String, TreeMap<String, MutableMap<CallableContainer, Int>>>()
+
+    fun add(entry: IndexEntry) {
+        val containers = namesFor(entry.receiverTypeName).getOrPut(entry.name) { hashMapOf() }
+        containers[entry.container] = (containers[entry.container] ?: 0) + 1
+    }
+
+    fun remove(entry: IndexEntry) {
+        val names = namesFor(entry.receiverTypeName)
+        val containers = names[entry.name] ?: return
+        val count = containers[entry.container] ?: return
+        if (count > 1) {
+            containers[entry.container] = count - 1
+            return
+        }
+
+        containers.remove(entry.container)
+        if (containers.isEmpty()) names.remove(entry.name)
+    }
+
+    fun find(prefix: String, receiverTypeNames: Set<String>, allowNoReceiver: Boolean, result: MutableSet<IndexedCallable>) {
+        if (allowNoReceiver) {
+            findByPrefix(nonExtensions, prefix, result)
+        }
+
+        for (receiverTypeName in receiverTypeNames + ANY_RECEIVER) {
+            extensions[receiverTypeName]?.let { findByPrefix(it, prefix, result) }
+        }
+    }
+
+    private fun findByPrefix(
+        names: TreeMap<String, MutableMap<CallableContainer, Int>>,
+        prefix: String,
+        result: MutableSet<IndexedCallable>
+    ) {
+        for ((name, containers) in names.subMap(prefix, true, prefix + Char.MAX_VALUE, false)) {
+            containers.keys.mapTo(result) { IndexedCallable(name, it) }
+        }
+    }
+
+    private fun namesFor(receiverTypeName: String?): TreeMap<String, MutableMap<CallableContainer, Int>> =
+        if (receiverTypeName == null) {
+            nonExtensions
+        } else {
+            extensions.getOrPut(receiverTypeName) { TreeMap(String.CASE_INSENSITIVE_ORDER) }
+        }
+}
+
+private fun receiverTypeName(descriptor: CallableDescriptor): String? {
+    val receiverType = descriptor.extensionReceiverParameter?.type ?: return null
+    return (receiverType.constructor.declarationDescriptor as? ClassDescriptor)?.name?.asString() ?: ANY_RECEIVER
+}
+
+private fun searchJavaStatics(scope: IJavaSearchScope, acceptStatic: (IMethod, CallableContainer.JavaClass) -> Unit) {
+    val requestor = object : MethodNameMatchRequestor() {
+        override fun acceptMethodNameMatch(match: MethodNameMatch) {
+            if (Flags.isPublic(match.modifiers) && Flags.isStatic(match.modifiers)) {
+                acceptStatic(match.method, javaClassContainer(match.method))
+            }
+        }
+    }
+
+    SearchEngine().searchAllMethodNames(
+        null,
+        SearchPattern.R_EXACT_MATCH,
+        null,
+        SearchPattern.R_EXACT_MATCH,
+        null,
+        SearchPattern.R_EXACT_MATCH,
+        null,
+        SearchPattern.R_PREFIX_MATCH,
+        scope,
+        requestor,
+        IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH,
+        null
+    )
+}
+
+private fun javaClassContainer(method: IMethod): CallableContainer.JavaClass {
+    val type = method.declaringType
+    return CallableContainer.JavaClass(
+        ClassId(FqName(type.packageFragment.elementName), FqName(type.getTypeQualifiedName('.')), false)
+    )
+}
+
+private class SourceFileEntries(val callables: List<IndexEntry>, val typeAliases: List<String>)
+
+private class ProjectSourceCallables(private val project: IProject) {
+    private val callables = CallableNames()
+    private val files = hashMapOf<IFile, SourceFileEntries>()
+    private val compilationUnits = hashMapOf<ICompilationUnit, List<IndexEntry>>()
+
+    // Type aliases declared in the project, extensions on them are matched by the name of the alias
+    private val typeAliasNames = hashMapOf<String, Int>()
+
+    private var javaStaticsCollected = false
+
+    private val changedFiles = ConcurrentHashMap.newKeySet<IFile>().apply {
+        addAll(KotlinPsiManager.getFilesByProject(project))
+    }
+    private val changedCompilationUnits = ConcurrentHashMap.newKeySet<ICompilationUnit>()
+
+    fun fileChanged(file: IFile) {
+        changedFiles.add(file)
+    }
+
+    fun compilationUnitChanged(compilationUnit: ICompilationUnit) {
+        changedCompilationUnits.add(compilationUnit)
+    }
+
+    @Synchronized
+    fun find(prefix: String, receiverTypeNames: Set<String>, allowNoReceiver: Boolean, result: MutableSet<IndexedCallable>) {
+        update()
+
+        callables.find(prefix, receiverTypeNames + typeAliasNames.keys, allowNoReceiver, result)
+    }
+
+    private fun update() {
+        if (!javaStaticsCollected) {
+            collectProjectJavaStatics()
+            javaStaticsCollected = true
+        }
+
+        val fileIterator = changedFiles.iterator()
+        while (fileIterator.hasNext()) {
+            val file = fileIterator.next()
+            fileIterator.remove()
+
+            files.remove(file)?.let { removeFileEntries(it) }
+            if (file.exists() && KotlinPsiManager.existsSourceFile(file)) {
+                val entries = collectCallables(KotlinPsiManager.getParsedFile(file))
+                files[file] = entries
+                entries.callables.forEach { callables.add(it) }
+                entries.typeAliases.forEach { typeAliasNames[it] = (typeAliasNames[it] ?: 0) + 1 }
+            }
+        }
+
+        val unitIterator = changedCompilationUnits.iterator()
+        while (unitIterator.hasNext()) {
+            val compilationUnit = unitIterator.next()
+            unitIterator.remove()
+
+            setJavaStatics(compilationUnit, collectJavaStatics(compilationUnit))
+        }
+    }
+
+    private fun removeFileEntries(entries: SourceFileEntries) {
+        entries.callables.forEach { callables.remove(it) }
+        entries.typeAliases.forEach { typeAliasNames.computeIfPresent(it) { _, count -> if (count > 1) count - 1 else null } }
+    }
+
+    // Static methods of Java sources are collected by one search, then reindexed by compilation units
+    private fun collectProjectJavaStatics() {
+        val javaProject = JavaCore.create(project)
+        if (!javaProject.exists()) return
+
+        val scope = SearchEngine.createJavaSearchScope(arrayOf<IJavaElement>(javaProject), IJavaSearchScope.SOURCES)
+        val found = hashMapOf<ICompilationUnit, MutableList<IndexEntry>>()
+        searchJavaStatics(scope) { method, container ->
+            val compilationUnit = method.compilationUnit
+            if (compilationUnit != null) {
+                found.getOrPut(compilationUnit.primary) { arrayListOf() }.add(IndexEntry(method.elementName, null, container))
+            }
+        }
+
+        found.forEach { (compilationUnit, entries) -> setJavaStatics(compilationUnit, entries) }
+    }
+
+    private fun setJavaStatics(compilationUnit: ICompilationUnit, entries: List<IndexEntry>) {
+        compilationUnits.remove(compilationUnit)?.forEach { callables.remove(it) }
+        if (entries.isNotEmpty()) {
+            compilationUnits[compilationUnit] = entries
+            entries.forEach { callables.add(it) }
+        }
+    }
+
+    private fun collectJavaStatics(compilationUnit: ICompilationUnit): List<IndexEntry> {
+        if (!compilationUnit.exists()) return emptyList()
+
+        return try {
+            compilationUnit.allTypes.flatMap { type ->
+                type.methods
+                    .filter { Flags.isPublic(it.flags) && Flags.isStatic(it.flags) }
+                    .map { IndexEntry(it.elementName, null, javaClassContainer(it)) }
+            }
+        } catch (e: JavaModelException) {
+            KotlinLogger.logError(e)
+            emptyList()
+        }
+    }
+
+    private fun collectCallables(ktFile: KtFile): SourceFileEntries {
+        val result = arrayListOf<IndexEntry>()
+        val typeAliases = arrayListOf<String>()
+        val filePackage = CallableContainer.Package(ktFile.packageFqName)
+
+        // Receivers named by import aliases can't be matched by the name of the receiver type
+        val importAliases = ktFile.importDirectives.mapNotNullTo(hashSetOf()) { it.aliasName }
+
+        ktFile.declarations.forEach { declaration ->
+            when (declaration) {
+                is KtNamedFunction, is KtProperty ->
+                    addCallable(declaration as KtCallableDeclaration, filePackage, importAliases, result)
+                is KtClassOrObject -> collectObjectCallables(declaration, importAliases, result)
+                is KtTypeAlias -> declaration.name?.let { typeAliases.add(it) }
+            }
+        }
+
+        return SourceFileEntries(result, typeAliases)
+    }
+
+    private fun collectObjectCallables(
+        classOrObject: KtClassOrObject,
+        importAliases: Set<String>,
+        result: MutableList<IndexEntry>
+    ) {
+        if (classOrObject.hasModifier(KtTokens.PRIVATE_KEYWORD)) return
+
+        val classId = classOrObject.getClassId()
+        classOrObject.declarations.forEach { declaration ->
+            when (declaration) {
+                is KtNamedFunction, is KtProperty -> if (classOrObject is KtObjectDeclaration && classId != null) {
+                    val container = CallableContainer.ObjectDeclaration(classId)
+                    addCallable(declaration as KtCallableDeclaration, container, importAliases, result)
+                }
+                is KtClassOrObject -> collectObjectCallables(declaration, importAliases, result)
+            }
+        }
+    }
+
+    private fun addCallable(
+        declaration: KtCallableDeclaration,
+        container: CallableContainer,
+        importAliases: Set<String>,
+        result: MutableList<IndexEntry>
+    ) {
+        val name = declaration.name ?: return
+        if (!declaration.hasModifier(KtTokens.PRIVATE_KEYWORD)) {
+            result.add(IndexEntry(name, receiverTypeName(declaration, importAliases), container))
+        }
+    }
+
+    private fun receiverTypeName(declaration: KtCallableDeclaration, importAliases: Set<String>): String? {
+        val typeReference = declaration.receiverTypeReference ?: return null
+
+        var typeElement = typeReference.typeElement
+        while (typeElement is KtNullableType) {
+            typeElement = typeElement.innerType
+        }
+
+        val name = (typeElement as? KtUserType)?.referencedName ?: return ANY_RECEIVER
+        val isTypeParameter = declaration.typeParameters.any { it.name == name }
+        return if (isTypeParameter || name in importAliases) ANY_RECEIVER else name
+    }
+}
@@ -91,7 +91,8 @@ fun createContainerForLazyResolveWithJava(
     javaProject: IJavaProject?,
     useBuiltInsProvider: Boolean,
     javaModuleAnnotationsProvider: JavaModuleAnnotationsProvider,
-    analyzerService: PlatformDependentAnalyzerServices?
+    analyzerService: PlatformDependentAnalyzerServices?,
+    javaClassFinderMode: EclipseJavaClassFinder.Mode
 ): StorageComponentContainer = createContainer("LazyResolveWithJava", JvmPlatformAnalyzerServices) {
     configureModule(
         moduleContext,
@@ -102,6 +103,7 @@ fun createContainerForLazyResolveWithJava(
     )
     configureJavaTopDownAnalysis(moduleContentScope, moduleContext.project, lookupTracker, languageVersionSettings)
 
+    useInstance(javaClassFinderMode)
     useImpl<EclipseJavaClassFinder>()
     useImpl<EclipseTraceBasedJavaResolverCache>()
     useImpl<EclipseJavaSourceElementFactory>()
@@ -151,11 +153,12 @@ fun createContainerForTopDownAnalyzerForJvm(
         moduleClassResolver: ModuleClassResolver,
         javaProject: IJavaProject?,
         javaModuleAnnotationsProvider: JavaModuleAnnotationsProvider,
-        analyzerService: PlatformDependentAnalyzerServices?
+        analyzerService: PlatformDependentAnalyzerServices?,
+        javaClassFinderMode: EclipseJavaClassFinder.Mode = EclipseJavaClassFinder.Mode.ALL
 ): ComponentProvider = createContainerForLazyResolveWithJava(
         moduleContext, bindingTrace, declarationProviderFactory, moduleContentScope, moduleClassResolver,
         CompilerEnvironment, lookupTracker, packagePartProvider, jvmTarget, languageVersionSettings, javaProject,
-        useBuiltInsProvider = true, javaModuleAnnotationsProvider, analyzerService
+        useBuiltInsProvider = true, javaModuleAnnotationsProvider, analyzerService, javaClassFinderMode
 )
 
 // Copy functions from Dsl.kt as they were shrinked by proguard
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.resolve.lang.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.log.KotlinLogger;
+import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaClass;
+import org.jetbrains.kotlin.core.utils.ProjectUtils;
+import org.jetbrains.kotlin.name.ClassId;
+import org.jetbrains.kotlin.name.FqName;
+
+/**
+ * Per-project cache of Java classes found by {@link EclipseJavaClassFinder}. Bindings for all types of a
+ * compilation unit are created from one AST when any of them is requested. The cache of a project is dropped
+ * when Java declarations in it or in projects it depends on are changed.
+ * <p>
+ * Bindings keep their AST and lookup environment alive, so only the {@link #MAX_ENTRIES} most recently used
+ * entries are kept.
+ */
+public class EclipseJavaClassCache {
+    
+    private static final ConcurrentMap<IProject, EclipseJavaClassCache> caches = new ConcurrentHashMap<>();
+    
+    private static final Entry NOT_FOUND = new Entry(null, null);
+    
+    private static final int MAX_ENTRIES = 2000;
+    
+    private final IJavaProject javaProject;
+    
+    private final Map<ClassId, Entry> entries = Collections.synchronizedMap(new LinkedHashMap<ClassId, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClassId, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    });
+    
+    private EclipseJavaClassCache(@NotNull IJavaProject javaProject) {
+        this.javaProject = javaProject;
+    }
+    
+    @NotNull
+    public static EclipseJavaClassCache getInstance(@NotNull IJavaProject javaProject) {
+        return caches.computeIfAbsent(javaProject.getProject(), project -> new EclipseJavaClassCache(javaProject));
+    }
+    
+    public static void invalidate(@NotNull IProject project) {
+        caches.remove(project);
+        
+        for (EclipseJavaClassCache cache : caches.values()) {
+            if (ProjectUtils.INSTANCE.getDependencyProjects(cache.javaProject).contains(project)) {
+                caches.remove(cache.javaProject.getProject(), cache);
+            }
+        }
+    }
+    
+    public static void invalidateAll() {
+        caches.clear();
+    }
+    
+    @Nullable
+    public EclipseJavaClass findClass(@NotNull ClassId classId, @NotNull EclipseJavaClassFinder.Mode mode) {
+        Entry entry = getEntry(classId);
+        return entry.type != null && mode.accepts(entry.type) ? entry.getJavaClass() : null;
+    }
+    
+    @Nullable
+    public ITypeBinding findBinding(@NotNull ClassId classId, @NotNull EclipseJavaClassFinder.Mode mode) {
+        Entry entry = getEntry(classId);
+        return entry.type != null && mode.accepts(entry.type) ? entry.binding : null;
+    }
+    
+    @NotNull
+    private Entry getEntry(@NotNull ClassId classId) {
+        Entry entry = entries.get(classId);
+        if (entry != null) {
+            return entry;
+        }
+        
+        Map<ClassId, Entry> created = createEntries(classId);
+        for (Map.Entry<ClassId, Entry> createdEntry : created.entrySet()) {
+            entries.putIfAbsent(createdEntry.getKey(), createdEntry.getValue());
+        }
+        
+        Entry result = entries.get(classId);
+        return result != null ? result : NOT_FOUND;
+    }
+    
+    @NotNull
+    private Map<ClassId, Entry> createEntries(@NotNull ClassId classId) {
+        Map<ClassId, Entry> result = new HashMap<>();
+        
+        IType eclipseType = null;
+        try {
+            eclipseType = javaProject.findType(classId.asSingleFqName().asString());
+        } catch (JavaModelException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+        
+        if (eclipseType == null || EclipseJavaClassFinder.isInKotlinBinFolder(eclipseType)) {
+            result.put(classId, NOT_FOUND);
+            return result;
+        }
+        
+        ICompilationUnit compilationUnit = eclipseType.getCompilationUnit();
+        if (compilationUnit == null) {
+            result.put(classId, new Entry(eclipseType, EclipseJavaClassFinder.createTypeBinding(eclipseType)));
+            return result;
+        }
+        
+        ASTParser parser = ASTParser.newParser(AST.JLS8);
+        parser.setCompilerOptions(javaProject.getOptions(true));
+        parser.setIgnoreMethodBodies(true);
+        parser.setSource(compilationUnit);
+        parser.setResolveBindings(true);
+        CompilationUnit root = (CompilationUnit) parser.createAST(null);
+        
+        for (IType type : getNamedTypes(compilationUnit)) {
+            ClassId typeClassId = computeClassId(type);
+            if (typeClassId != null) {
+                result.put(typeClassId, new Entry(type, EclipseJavaClassFinder.getTypeBinding(root, type)));
+            }
+        }
+        
+        // Request by name which differs from the one computed from the type, e.g. nested class requested as top-level
+        if (!result.containsKey(classId)) {
+            result.put(classId, new Entry(eclipseType, EclipseJavaClassFinder.getTypeBinding(root, eclipseType)));
+        }
+        
+        return result;
+    }
+    
+    @NotNull
+    private static List<IType> getNamedTypes(@NotNull ICompilationUnit compilationUnit) {
+        List<IType> types = new ArrayList<>();
+        try {
+            for (IType type : compilationUnit.getAllTypes()) {
+                if (!type.isAnonymous() && !type.isLocal()) {
+                    types.add(type);
+                }
+            }
+        } catch (JavaModelException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+        
+        return types;
+    }
+    
+    @Nullable
+    private static ClassId computeClassId(@NotNull IType type) {
+        String packageName = type.getPackageFragment().getElementName();
+        String relativeName = type.getTypeQualifiedName('.');
+        return relativeName.isEmpty() ? null : new ClassId(new FqName(packageName), new FqName(relativeName), false);
+    }
+    
+    private static class Entry {
+        @Nullable final IType type;
+        @Nullable final ITypeBinding binding;
+        
+        private volatile EclipseJavaClass javaClass;
+        
+        Entry(@Nullable IType type, @Nullable ITypeBinding binding) {
+            this.type = type;
+            this.binding = binding;
+        }
+        
+        @Nullable
+        EclipseJavaClass getJavaClass() {
+            if (binding == null) {
+                return null;
+            }
+            
+            if (javaClass == null) {
+                javaClass = new EclipseJavaClass(binding);
+            }
+            
+            return javaClass;
+        }
+    }
+}
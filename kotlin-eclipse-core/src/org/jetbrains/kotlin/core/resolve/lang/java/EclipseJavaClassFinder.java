@@ -29,7 +29,6 @@ import org.jetbrains.kotlin.config.LanguageVersionSettings;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.core.model.KotlinJavaManager;
-import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaClass;
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaPackage;
 import org.jetbrains.kotlin.load.java.AbstractJavaClassFinder;
 import org.jetbrains.kotlin.load.java.structure.JavaClass;
@@ -45,11 +44,30 @@ import java.util.Arrays;
 import java.util.Set;
 
 public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
+    
+    /**
+     * Kinds of Java classes visible to the finder. Library classes are resolved once in the shared
+     * dependencies module, while classes from sources are resolved together with the Kotlin sources.
+     */
+    public enum Mode {
+        ALL, SOURCES, BINARIES;
+        
+        public boolean accepts(@NotNull IType type) {
+            switch (this) {
+                case SOURCES: return !type.isBinary();
+                case BINARIES: return type.isBinary();
+                default: return true;
+            }
+        }
+    }
 
     private IJavaProject javaProject;
+    
+    private final Mode mode;
 
-    public EclipseJavaClassFinder(@NotNull IJavaProject project) {
+    public EclipseJavaClassFinder(@NotNull IJavaProject project, @NotNull Mode mode) {
         javaProject = project;
+        this.mode = mode;
     }
 
     @Override
@@ -85,12 +103,7 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
     @Override
     @Nullable
     public JavaClass findClass(@NotNull ClassId classId) {
-        ITypeBinding typeBinding = findType(classId.asSingleFqName(), javaProject);
-        if (typeBinding != null) {
-            return new EclipseJavaClass(typeBinding);
-        }
-        
-        return null;
+        return EclipseJavaClassCache.getInstance(javaProject).findClass(classId, mode);
     }
     
     @Nullable
@@ -108,17 +121,12 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
     
     @Nullable
     public static ITypeBinding findType(@NotNull FqName fqName, @NotNull IJavaProject javaProject) {
-        IType eclipseType = null;
-        try {
-            eclipseType = javaProject.findType(fqName.asString());
-        } catch (JavaModelException e) {
-            KotlinLogger.logAndThrow(e);
-        }
-        if (eclipseType != null) {
-            return !isInKotlinBinFolder(eclipseType) ? createTypeBinding(eclipseType) : null;
-        }
-        
-        return null;
+        return findType(fqName, javaProject, Mode.ALL);
+    }
+    
+    @Nullable
+    public static ITypeBinding findType(@NotNull FqName fqName, @NotNull IJavaProject javaProject, @NotNull Mode mode) {
+        return EclipseJavaClassCache.getInstance(javaProject).findBinding(ClassId.topLevel(fqName), mode);
     }
     
     public static boolean isInKotlinBinFolder(@NotNull IType eclipseType) {
@@ -156,7 +164,7 @@ public class EclipseJavaClassFinder extends AbstractJavaClassFinder {
         return node;
     }
     
-    private static ITypeBinding getTypeBinding(CompilationUnit root, IType type) {
+    static ITypeBinding getTypeBinding(CompilationUnit root, IType type) {
         try {
             if (type.isAnonymous()) {
                 final IJavaElement parent = type.getParent();
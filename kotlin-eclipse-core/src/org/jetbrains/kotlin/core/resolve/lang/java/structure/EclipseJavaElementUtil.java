@@ -29,7 +29,6 @@ import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IMethod;
-import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.IAnnotationBinding;
 import org.eclipse.jdt.core.dom.IBinding;
@@ -114,16 +113,8 @@ public class EclipseJavaElementUtil {
 
     @NotNull
     private static ITypeBinding getJavaLangObjectBinding(@NotNull IJavaProject javaProject) {
-        try {
-            IType javaType = javaProject.findType(CommonClassNames.JAVA_LANG_OBJECT);
-            if(javaType == null) {
-            	return null; // this happens if the project was modified while analyzing in progress.
-            }
-            return EclipseJavaClassFinder.createTypeBinding(javaType);
-        } catch (JavaModelException e) {
-            KotlinLogger.logAndThrow(e);
-            throw new IllegalStateException(e);
-        }
+        // null if the project was modified while analyzing in progress.
+        return EclipseJavaClassFinder.findType(new FqName(CommonClassNames.JAVA_LANG_OBJECT), javaProject);
     }
 
     @NotNull
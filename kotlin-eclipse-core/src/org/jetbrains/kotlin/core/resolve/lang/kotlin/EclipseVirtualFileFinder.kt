@@ -89,7 +89,7 @@ class EclipseVirtualFileFinder(
         val eclipseProject = javaProject.project
 //        In the classpath we can have either path to jar file ot to the class folder
 //        Therefore in path might be location to the jar file or to the class file
-        return when {
+        val file = when {
             isClassFileName(path.toOSString()) -> KotlinEnvironment.getEnvironment(eclipseProject).getVirtualFile(path)
 
             KotlinEnvironment.getEnvironment(eclipseProject).isJarFile(path) -> {
@@ -99,6 +99,8 @@ class EclipseVirtualFileFinder(
 
             else -> throw IllegalArgumentException("Virtual file not found for $path")
         }
+
+        return file?.check { it in scope }
     }
     
     private fun isBinaryKotlinClass(type: IType): Boolean = type.isBinary && !EclipseJavaClassFinder.isInKotlinBinFolder(type)
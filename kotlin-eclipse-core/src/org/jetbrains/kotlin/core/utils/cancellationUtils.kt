@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.utils
+
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import org.jetbrains.kotlin.progress.CompilationCanceledStatus
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
+
+// The compiler has only one global canceled status, so checks of different threads are kept here
+private object ThreadCanceledStatus : CompilationCanceledStatus {
+    val checks = ThreadLocal<(() -> Boolean)?>()
+
+    override fun checkCanceled() {
+        if (checks.get()?.invoke() == true) throw CompilationCanceledException()
+    }
+}
+
+/**
+ * Runs [block] so that the compiler throws [CompilationCanceledException] on this thread as soon as [isCanceled]
+ * returns `true`. Other threads are not affected. Nested calls are canceled if any of the outer checks is.
+ */
+fun <T> runCancellable(isCanceled: () -> Boolean, block: () -> T): T {
+    ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(ThreadCanceledStatus)
+
+    val outerCheck = ThreadCanceledStatus.checks.get()
+    ThreadCanceledStatus.checks.set(if (outerCheck == null) isCanceled else { { outerCheck() || isCanceled() } })
+    try {
+        return block()
+    } finally {
+        ThreadCanceledStatus.checks.set(outerCheck)
+    }
+}
+
+/**
+ * Returns the check installed by [runCancellable] on this thread, so it can be passed to work done on other threads.
+ */
+fun currentCancellationCheck(): () -> Boolean = ThreadCanceledStatus.checks.get() ?: { false }
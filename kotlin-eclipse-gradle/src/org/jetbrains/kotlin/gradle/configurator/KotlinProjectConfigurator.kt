@@ -30,7 +30,7 @@ class KotlinProjectConfigurator : ProjectConfigurator {
 
     override fun configure(context: ProjectContext, monitor: IProgressMonitor) {
         val project = context.project
-        KotlinEnvironment.removeEnvironment(project)
+        KotlinEnvironment.updateClasspath(project)
         
         if (!::multiModel.isInitialized) return
         val model = multiModel[project.name]
@@ -47,6 +47,7 @@ class KotlinProjectConfigurator : ProjectConfigurator {
         }
 
         val compilerProperties = KotlinEnvironment.getEnvironment(project).projectCompilerProperties
+        val previousProperties = compilerProperties.effectiveValues()
         compilerProperties.loadDefaults()
         var configurationChanged = false
 
@@ -75,7 +76,15 @@ class KotlinProjectConfigurator : ProjectConfigurator {
 
         if (configurationChanged) {
             compilerProperties.globalsOverridden = true
+        }
+
+        // Most synchronizations do not change the model, the environment is recreated only for actual changes
+        if (configurationChanged && compilerProperties.effectiveValues() != previousProperties) {
             compilerProperties.saveChanges()
+            // Compiler plugins and flags are applied when the environment is created
+            KotlinEnvironment.removeEnvironment(project)
+        } else {
+            compilerProperties.cancelChanges()
         }
 
         model.codestyle
@@ -92,4 +101,17 @@ class KotlinProjectConfigurator : ProjectConfigurator {
     override fun unconfigure(context: ProjectContext, monitor: IProgressMonitor) {
         KotlinNature.removeNature(context.project)
     }
+
+    // Values the environment is created with, including the ones inherited from the workspace
+    private fun KotlinProperties.effectiveValues(): List<Any?> = listOf(
+        globalsOverridden,
+        jvmTarget,
+        languageVersion,
+        apiVersion,
+        jdkHome,
+        compilerFlags,
+        compilerPlugins.entries
+            .filter { it.active }
+            .associate { it.key to listOf(it.jarPath, it.args) }
+    )
 }
\ No newline at end of file
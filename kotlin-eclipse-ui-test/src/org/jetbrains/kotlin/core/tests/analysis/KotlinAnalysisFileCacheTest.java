@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.core.resources.IFile;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache;
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.diagnostics.Errors;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinAnalysisFileCacheTest extends KotlinProjectTestCase {
+    private static final String KOTLIN_TEXT = "fun test() {\n    JavaClass.foo()\n}\n";
+    
+    @Before
+    public void before() {
+        configureProjectWithStdLib();
+        KotlinAnalysisFileCache.INSTANCE.resetCache();
+    }
+    
+    @Test
+    public void cachedResultIsReused() {
+        createSourceFile("JavaClass.java", javaClass("foo"));
+        IFile file = createSourceFile("usage.kt", KOTLIN_TEXT);
+        KotlinTestUtils.joinBuildThread();
+        
+        AnalysisResultWithProvider first = analyze(file);
+        long hits = KotlinAnalysisFileCache.INSTANCE.getStatistics().getHits();
+        
+        assertSame(first, analyze(file));
+        assertEquals(hits + 1, KotlinAnalysisFileCache.INSTANCE.getStatistics().getHits());
+    }
+    
+    @Test
+    public void javaClassChangeInvalidatesCachedResult() {
+        createSourceFile("JavaClass.java", javaClass("foo"));
+        IFile file = createSourceFile("usage.kt", KOTLIN_TEXT);
+        KotlinTestUtils.joinBuildThread();
+        
+        AnalysisResultWithProvider before = analyze(file);
+        assertFalse(hasUnresolvedReference(before));
+        
+        // The Kotlin file itself is not changed
+        createSourceFile("JavaClass.java", javaClass("bar"));
+        KotlinTestUtils.joinBuildThread();
+        
+        AnalysisResultWithProvider after = analyze(file);
+        assertNotSame(before, after);
+        assertTrue(hasUnresolvedReference(after));
+    }
+    
+    private static AnalysisResultWithProvider analyze(IFile file) {
+        KtFile ktFile = KotlinPsiManager.INSTANCE.getParsedFile(file);
+        return KotlinAnalysisFileCache.INSTANCE.getAnalysisResult(ktFile);
+    }
+    
+    private static boolean hasUnresolvedReference(AnalysisResultWithProvider result) {
+        for (Diagnostic diagnostic : result.getAnalysisResult().getBindingContext().getDiagnostics().all()) {
+            if (diagnostic.getFactory() == Errors.UNRESOLVED_REFERENCE) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static String javaClass(String methodName) {
+        return "public class JavaClass {\n    public static void " + methodName + "() {}\n}\n";
+    }
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.analysis;
+
+import org.junit.Test;
+
+public class KotlinIncrementalAnalysisTest extends KotlinIncrementalAnalysisTestCase {
+    
+    @Test
+    public void inferredTypeChangedTransitively() {
+        doAutoTest();
+    }
+    
+    @Test
+    public void conflictingOverloadAdded() {
+        doAutoTest();
+    }
+    
+    @Test
+    public void conflictingOverloadRemoved() {
+        doAutoTest();
+    }
+    
+    @Test
+    public void javaSupertypeChanged() {
+        doAutoTest();
+    }
+    
+    @Test
+    public void javaSamInterfaceChanged() {
+        doAutoTest();
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.analysis
+
+import java.io.File
+import org.eclipse.core.resources.IFile
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.testframework.editor.KotlinEditorAutoTestCase
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils
+import org.jetbrains.kotlin.testframework.utils.SourceFileData
+import org.junit.Assert
+import org.junit.Before
+
+/**
+ * Loads files of a test folder to the project, analyzes it, then replaces files with their `.after` versions
+ * and checks that diagnostics of the incremental analysis are the same as the ones of the full analysis.
+ */
+abstract class KotlinIncrementalAnalysisTestCase : KotlinEditorAutoTestCase() {
+    @Before
+    fun before() {
+        configureProjectWithStdLib()
+    }
+    
+    override fun doSingleFileAutoTest(testPath: String) {
+        throw UnsupportedOperationException("Incremental analysis test needs a folder with files")
+    }
+    
+    override fun doMultiFileAutoTest(testFolder: File) {
+        val (changes, files) = testFolder.listFiles().partition { it.name.endsWith(AFTER_FILE_EXTENSION) }
+        files.forEach { loadFile(it.name, it) }
+        
+        KotlinTestUtils.joinBuildThread()
+        val javaProject = testProject.javaProject
+        KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+        val reusedBefore = KotlinAnalysisProjectCache.getStatistics(testProject.project).reusedFiles
+        
+        changes.forEach { loadFile(it.name.removeSuffix(AFTER_FILE_EXTENSION), it) }
+        
+        KotlinTestUtils.joinBuildThread()
+        val incremental = renderDiagnostics(KotlinAnalysisProjectCache.getAnalysisResult(javaProject).bindingContext.diagnostics.all())
+        Assert.assertTrue(
+            "Project was analyzed from scratch",
+            KotlinAnalysisProjectCache.getStatistics(testProject.project).reusedFiles > reusedBefore)
+        
+        KotlinAnalysisProjectCache.resetCache(testProject.project)
+        val full = renderDiagnostics(KotlinAnalysisProjectCache.getAnalysisResult(javaProject).bindingContext.diagnostics.all())
+        
+        Assert.assertEquals(full, incremental)
+    }
+    
+    private fun loadFile(name: String, file: File): IFile {
+        val text = KotlinTestUtils.getText(file.absolutePath)
+        return createSourceFile(SourceFileData.getPackageFromContent(text), name, text)
+    }
+    
+    override fun getTestDataRelativePath() = INCREMENTAL_ANALYSIS_TEST_DATA_PATH_SEGMENT
+}
+
+private val INCREMENTAL_ANALYSIS_TEST_DATA_PATH_SEGMENT = "incremental_analysis"
+
+private fun renderDiagnostics(diagnostics: Collection<Diagnostic>): String {
+    return diagnostics
+            .map { "${it.psiFile.name} ${it.textRanges.joinToString()}: ${it.factory.name}" }
+            .sorted()
+            .joinToString("\n")
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.analysis
+
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.preferences.KotlinPerformanceProperties
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils
+import org.junit.Assert
+import org.junit.Before
+
+/**
+ * Analyzes a project large enough to be split into partitions, see [KotlinPerformanceProperties.analysisParallelism],
+ * and checks that diagnostics are the same as the ones of the analysis on a single thread.
+ */
+abstract class KotlinPartitionedAnalysisTestCase : KotlinProjectTestCase() {
+    @Before
+    fun before() {
+        configureProjectWithStdLib()
+    }
+    
+    protected fun doTest(fileCount: Int, parallelism: Int) {
+        for (i in 0 until fileCount) {
+            createSourceFile(TEST_PACKAGE, "file$i.kt", generateFile(i))
+        }
+        KotlinTestUtils.joinBuildThread()
+        
+        val serial = analyzeWithParallelism(1)
+        val partitioned = analyzeWithParallelism(parallelism)
+        
+        Assert.assertTrue("Test project has no diagnostics", serial.isNotEmpty())
+        Assert.assertEquals(serial, partitioned)
+    }
+    
+    private fun analyzeWithParallelism(parallelism: Int): String {
+        val properties = KotlinPerformanceProperties.workspaceInstance
+        val project = testProject.javaProject
+        try {
+            properties.analysisParallelism = parallelism
+            KotlinAnalysisProjectCache.resetCache(project.project)
+            return renderDiagnostics(KotlinAnalysisProjectCache.getAnalysisResult(project).bindingContext.diagnostics.all())
+        } finally {
+            properties.cancelChanges()
+        }
+    }
+    
+    // Files refer to declarations of each other, some of them with inferred types, and have errors
+    // which depend on other files: type mismatches and conflicting declarations
+    private fun generateFile(index: Int): String = buildString {
+        appendLine("package $TEST_PACKAGE")
+        appendLine()
+        appendLine("fun f$index() = ${if (index == 0) "0" else "f${index - 1}() + 1"}")
+        appendLine()
+        appendLine("class C$index {")
+        appendLine("    fun g() = f$index().toString()")
+        appendLine("}")
+        if (index % 10 == 0) {
+            appendLine()
+            appendLine("val wrong$index: String = f$index()")
+        }
+        if (index % 40 == 0) {
+            appendLine()
+            appendLine("fun duplicate() = C$index().g()")
+        }
+    }
+}
+
+private const val TEST_PACKAGE = "partitioned"
+
+private fun renderDiagnostics(diagnostics: Collection<Diagnostic>): String {
+    return diagnostics
+            .map { "${it.psiFile.name} ${it.textRanges.joinToString()}: ${it.factory.name}" }
+            .sorted()
+            .joinToString("\n")
+}
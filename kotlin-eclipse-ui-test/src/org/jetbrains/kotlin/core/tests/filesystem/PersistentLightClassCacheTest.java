@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.core.tests.filesystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.filesystem.PersistentLightClassCache;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentLightClassCacheTest extends KotlinProjectTestCase {
+    private static final File LIGHT_CLASS = new File("User.class");
+    private static final byte[] LIGHT_CLASS_BYTES = new byte[] { 1, 2, 3 };
+    
+    @Before
+    public void before() {
+        configureProjectWithStdLib();
+    }
+    
+    @Test
+    public void savedDependencyGivesPersistentKey() {
+        createSourceFile("dep.kt", "fun dep(): Int = 1");
+        IFile userFile = createSourceFile("user.kt", "class User { fun use() = dep() }");
+        KotlinTestUtils.joinBuildThread();
+        
+        String key = computeKey(userFile);
+        assertNotNull(key);
+        
+        PersistentLightClassCache.INSTANCE.put(key, LIGHT_CLASS_BYTES);
+        assertArrayEquals(LIGHT_CLASS_BYTES, PersistentLightClassCache.INSTANCE.get(key));
+    }
+    
+    @Test
+    public void unsavedDependencySignatureChangeDoesNotReuseEntry() {
+        IFile depFile = createSourceFile("dep.kt", "fun dep(): Int = 1");
+        IFile userFile = createSourceFile("user.kt", "class User { fun use() = dep() }");
+        KotlinTestUtils.joinBuildThread();
+        
+        String savedKey = computeKey(userFile);
+        assertNotNull(savedKey);
+        PersistentLightClassCache.INSTANCE.put(savedKey, LIGHT_CLASS_BYTES);
+        
+        // Editor change of the dependency signature, the file on disk is not changed
+        KotlinPsiManager.getKotlinFileIfExist(depFile, "fun dep(): String = \"\"");
+        
+        assertNull(computeKey(userFile));
+        
+        createSourceFile("dep.kt", "fun dep(): String = \"\"");
+        KotlinTestUtils.joinBuildThread();
+        
+        String changedKey = computeKey(userFile);
+        assertNotNull(changedKey);
+        assertNotEquals(savedKey, changedKey);
+        assertNull(PersistentLightClassCache.INSTANCE.get(changedKey));
+    }
+    
+    private String computeKey(IFile userFile) {
+        IProject project = getTestProject().getProject();
+        List<KtFile> sourceFiles = Collections.singletonList(KotlinPsiManager.INSTANCE.getParsedFile(userFile));
+        return PersistentLightClassCache.INSTANCE.computeKey(project, LIGHT_CLASS, sourceFiles);
+    }
+}
@@ -473,4 +473,14 @@ public class KotlinBasicCompletionTest extends KotlinBasicCompletionTestCase {
     public void testNotImportedAnnotation() {
         doTest("testData/completion/basic/common/notImportedAnnotation.kt");
     }
+    
+    @Test
+    public void testNotImportedObjectMember() {
+        doTest("testData/completion/basic/common/NotImportedObjectMember.kt");
+    }
+    
+    @Test
+    public void testNotImportedExtensionByReceiver() {
+        doTest("testData/completion/basic/common/NotImportedExtensionByReceiver.kt");
+    }
 }
\ No newline at end of file
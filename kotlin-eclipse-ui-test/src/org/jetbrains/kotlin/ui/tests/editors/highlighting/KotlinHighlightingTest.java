@@ -130,6 +130,11 @@ public class KotlinHighlightingTest extends KotlinHighlightingTestCase {
 		doAutoTest();
 	}
 	
+	@Test
+	public void softKeywordsBeforeParentheses() {
+		doAutoTest();
+	}
+	
 	@Test
 	public void stringInterpolation() {
 		doAutoTest();
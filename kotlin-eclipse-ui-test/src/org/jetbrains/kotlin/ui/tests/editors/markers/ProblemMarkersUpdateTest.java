@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.ui.tests.editors.markers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.testframework.utils.KotlinTestUtils;
+import org.jetbrains.kotlin.ui.builder.KotlinAnalysisJobKt;
+import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager;
+import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProblemMarkersUpdateTest extends KotlinProjectTestCase {
+    private static final String FILE_TEXT = "fun foo() {}\nfun bar() {}\nfun baz() {}\n";
+    
+    private IFile file;
+    
+    @Before
+    public void before() {
+        configureProject();
+        file = createSourceFile("markers.kt", FILE_TEXT);
+    }
+    
+    @Test
+    public void sameDiagnosticsKeepMarkers() throws CoreException {
+        updateMarkers(error(1, "foo"), warning(2, "bar"));
+        Map<String, Long> before = getMarkerIds();
+        
+        updateMarkers(error(1, "foo"), warning(2, "bar"));
+        
+        assertEquals(before, getMarkerIds());
+    }
+    
+    @Test
+    public void onlyChangedDiagnosticsReplaceMarkers() throws CoreException {
+        updateMarkers(error(1, "foo"), warning(2, "bar"));
+        Map<String, Long> before = getMarkerIds();
+        
+        updateMarkers(error(1, "foo"), error(2, "bar"), warning(3, "baz"));
+        Map<String, Long> after = getMarkerIds();
+        
+        assertEquals(3, after.size());
+        assertEquals(before.get(key(error(1, "foo"))), after.get(key(error(1, "foo"))));
+        assertNotEquals(before.get(key(warning(2, "bar"))), after.get(key(error(2, "bar"))));
+        assertTrue(after.containsKey(key(warning(3, "baz"))));
+    }
+    
+    @Test
+    public void duplicateDiagnosticsHaveOwnMarkers() throws CoreException {
+        updateMarkers(error(1, "foo"), error(1, "foo"));
+        assertEquals(2, getMarkers().length);
+        
+        updateMarkers(error(1, "foo"));
+        assertEquals(1, getMarkers().length);
+    }
+    
+    @Test
+    public void noDiagnosticsRemoveMarkers() throws CoreException {
+        updateMarkers(error(1, "foo"), warning(2, "bar"));
+        
+        AnnotationManager.INSTANCE.updateProblemMarkers(
+                Collections.singletonList(file), 
+                Collections.<IFile, List<DiagnosticAnnotation>>emptyMap());
+        
+        assertEquals(0, getMarkers().length);
+    }
+    
+    @Test
+    public void fullBuildKeepsMarkersOfUnchangedDiagnostics() throws CoreException, InterruptedException {
+        IFile builtFile = createSourceFile("built.kt", "fun built(): Int = \"text\"\n");
+        
+        fullBuild();
+        Map<String, Long> before = getMarkerIds(builtFile);
+        assertFalse(before.isEmpty());
+        
+        fullBuild();
+        
+        assertEquals(before, getMarkerIds(builtFile));
+    }
+    
+    private void fullBuild() throws CoreException, InterruptedException {
+        IProject project = getTestProject().getProject();
+        project.build(IncrementalProjectBuilder.FULL_BUILD, null);
+        
+        KotlinTestUtils.joinBuildThread();
+        Job.getJobManager().join(KotlinAnalysisJobKt.constructFamilyIndicator(getTestProject().getJavaProject()), null);
+    }
+    
+    private void updateMarkers(DiagnosticAnnotation... annotations) {
+        AnnotationManager.INSTANCE.updateProblemMarkers(
+                Collections.singletonList(file), 
+                Collections.singletonMap(file, Arrays.asList(annotations)));
+    }
+    
+    private IMarker[] getMarkers() throws CoreException {
+        return getMarkers(file);
+    }
+    
+    private static IMarker[] getMarkers(IFile markedFile) throws CoreException {
+        return markedFile.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
+    }
+    
+    private Map<String, Long> getMarkerIds() throws CoreException {
+        return getMarkerIds(file);
+    }
+    
+    private static Map<String, Long> getMarkerIds(IFile markedFile) throws CoreException {
+        Map<String, Long> ids = new HashMap<>();
+        for (IMarker marker : getMarkers(markedFile)) {
+            String key = marker.getAttribute(IMarker.SEVERITY, 0) + " " + marker.getAttribute(IMarker.MESSAGE, "");
+            ids.put(key, marker.getId());
+        }
+        
+        return ids;
+    }
+    
+    private static String key(DiagnosticAnnotation annotation) {
+        return annotation.getMarkerSeverity() + " " + annotation.getMessage();
+    }
+    
+    private DiagnosticAnnotation error(int line, String name) {
+        return annotation(line, name, AnnotationManager.ANNOTATION_ERROR_TYPE);
+    }
+    
+    private DiagnosticAnnotation warning(int line, String name) {
+        return annotation(line, name, AnnotationManager.ANNOTATION_WARNING_TYPE);
+    }
+    
+    private DiagnosticAnnotation annotation(int line, String name, String type) {
+        int offset = FILE_TEXT.indexOf(name);
+        return new DiagnosticAnnotation(line, offset, name.length(), type, "Problem with " + name, name, file, null);
+    }
+}
@@ -80,6 +80,11 @@ public class KotlinFindReferencesTest extends KotlinFindReferencesTestCase {
         doTest("testData/findUsages/kotlin/findFunctionUsages/javaMethodUsages.0.kt");
     }
     
+    @Test
+    public void testKotlinBacktickedNameUsages() {
+        doTest("testData/findUsages/kotlin/findFunctionUsages/kotlinBacktickedNameUsages.0.kt");
+    }
+    
     @Test
     public void testKotlinLocalMethodUsages1() {
         doTest("common_testData/ide/findUsages/kotlin/findFunctionUsages/kotlinLocalMethodUsages1.0.kt");
@@ -105,6 +110,11 @@ public class KotlinFindReferencesTest extends KotlinFindReferencesTestCase {
         doTest("common_testData/ide/findUsages/kotlin/findFunctionUsages/kotlinNestedClassMethodUsages.0.kt");
     }
     
+    @Test
+    public void testKotlinOperatorUsages() {
+        doTest("testData/findUsages/kotlin/findFunctionUsages/kotlinOperatorUsages.0.kt");
+    }
+    
     @Test
     public void testKotlinTopLevelMethodUsagesNoImport() {
         doTest("common_testData/ide/findUsages/kotlin/findFunctionUsages/kotlinTopLevelMethodUsagesNoImport.0.kt");
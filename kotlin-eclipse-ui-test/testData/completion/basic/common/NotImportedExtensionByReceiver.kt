@@ -0,0 +1,19 @@
+package testing
+
+class Receiver
+class OtherReceiver
+
+object Extensions {
+    fun Receiver.notImportedReceiverExtension() {}
+    fun OtherReceiver.notImportedOtherExtension() {}
+    fun <T> T.notImportedGenericExtension() {}
+}
+
+fun someFun(receiver: Receiver) {
+    receiver.notImported<caret>
+}
+
+// Checks that not imported extensions are looked up by the receiver type
+// EXIST: notImportedReceiverExtension
+// EXIST: notImportedGenericExtension
+// ABSENT: notImportedOtherExtension
@@ -0,0 +1,12 @@
+package testing
+
+object Helpers {
+    fun notImportedHelper() {}
+}
+
+fun someFun() {
+    notImportedHel<caret>
+}
+
+// Checks that members of objects are completed from the index of not imported callables
+// EXIST: notImportedHelper()
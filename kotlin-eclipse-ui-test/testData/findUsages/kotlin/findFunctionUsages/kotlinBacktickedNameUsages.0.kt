@@ -0,0 +1,7 @@
+// PSI_ELEMENT: org.jetbrains.kotlin.psi.JetNamedFunction
+// OPTIONS: usages
+package server
+
+fun <caret>`process request`(id: Int) = id
+
+fun processRequest(id: Int) = `process request`(id)
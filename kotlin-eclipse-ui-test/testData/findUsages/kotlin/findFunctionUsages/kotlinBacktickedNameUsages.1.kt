@@ -0,0 +1,6 @@
+import server.*
+
+fun client() {
+    `process request`(1)
+    processRequest(2)
+}
@@ -0,0 +1,7 @@
+// PSI_ELEMENT: org.jetbrains.kotlin.psi.JetNamedFunction
+// OPTIONS: usages
+package vectors
+
+class Vector(val x: Int, val y: Int) {
+    operator fun <caret>plus(other: Vector) = Vector(x + other.x, y + other.y)
+}
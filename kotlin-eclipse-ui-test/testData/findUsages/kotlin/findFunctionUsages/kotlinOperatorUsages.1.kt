@@ -0,0 +1,7 @@
+import vectors.Vector
+
+fun sum(a: Vector, b: Vector): Vector {
+    var result = a + b
+    result += a
+    return result.plus(b)
+}
@@ -0,0 +1,23 @@
+<keyword>class</keyword> Container {
+	<keyword>init</keyword> {
+		init(0)
+		get(0)
+	}
+	
+	<keyword>constructor</keyword>(x: Int) {
+	}
+	
+	<keyword>var</keyword> size: Int = 0
+		<keyword>get</keyword>(): Int = field
+		<keyword>set</keyword>(value) {
+			field = value
+		}
+	
+	<keyword>fun</keyword> get(i: Int) = i
+	
+	<keyword>fun</keyword> init(i: Int) {
+		<keyword>try</keyword> {
+		} <keyword>catch</keyword> (e: Exception) {
+		}
+	}
+}
\ No newline at end of file
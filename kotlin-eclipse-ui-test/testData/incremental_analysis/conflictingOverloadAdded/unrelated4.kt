@@ -0,0 +1 @@
+fun unrelated4(): Int = 4
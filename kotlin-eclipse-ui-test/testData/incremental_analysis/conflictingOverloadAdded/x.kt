@@ -0,0 +1 @@
+fun foo() = 1
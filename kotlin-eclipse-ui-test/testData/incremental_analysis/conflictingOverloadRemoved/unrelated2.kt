@@ -0,0 +1 @@
+fun unrelated2(): Int = 2
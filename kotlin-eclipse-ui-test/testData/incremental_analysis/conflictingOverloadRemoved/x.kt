@@ -0,0 +1,3 @@
+fun foo() = 1
+
+fun bar() {}
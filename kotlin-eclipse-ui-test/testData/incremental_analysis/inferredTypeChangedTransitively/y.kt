@@ -0,0 +1 @@
+val x = foo()
@@ -0,0 +1 @@
+val y: Int = x
@@ -0,0 +1,6 @@
+package lib;
+
+public class Button {
+    public void setListener(Listener listener) {
+    }
+}
@@ -0,0 +1,5 @@
+import lib.Button
+
+fun listen(button: Button) {
+    button.setListener { value -> value.length }
+}
@@ -0,0 +1,7 @@
+package lib;
+
+public class Base {
+    public int size() {
+        return 0;
+    }
+}
@@ -0,0 +1,7 @@
+package lib;
+
+public class Holder {
+    public Item item() {
+        return new Item();
+    }
+}
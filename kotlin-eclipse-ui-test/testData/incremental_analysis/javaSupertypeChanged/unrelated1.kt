@@ -0,0 +1 @@
+fun unrelated1(): Int = 1
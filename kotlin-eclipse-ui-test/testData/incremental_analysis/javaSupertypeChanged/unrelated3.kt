@@ -0,0 +1 @@
+fun unrelated3(): Int = 3
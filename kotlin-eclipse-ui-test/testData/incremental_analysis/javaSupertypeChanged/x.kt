@@ -0,0 +1,3 @@
+import lib.Holder
+
+fun firstItem(holder: Holder) = holder.item()
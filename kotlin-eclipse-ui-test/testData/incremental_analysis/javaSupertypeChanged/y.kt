@@ -0,0 +1,3 @@
+import lib.Holder
+
+fun size(holder: Holder): Int = firstItem(holder).size()
@@ -1,6 +1,7 @@
 package org.jetbrains.kotlin.ui;
 
 import org.eclipse.ui.IStartup;
+import org.jetbrains.kotlin.core.model.KotlinEnvironmentWarmUpJob;
 
 public class KotlinUiStartupClass implements IStartup {
     
@@ -9,6 +10,7 @@ public class KotlinUiStartupClass implements IStartup {
         // activating Kotlin UI plugin on workbench startup
 
         new RemoveRemnantProjectsJob().schedule(3 * 1000);
+        KotlinEnvironmentWarmUpJob.scheduleIfEnabled(5 * 1000);
     }
     
 }
@@ -10,6 +10,7 @@ import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.ui.PlatformUI
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
 import org.jetbrains.kotlin.core.model.runJob
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
@@ -19,9 +20,7 @@ import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import org.jetbrains.kotlin.ui.KotlinPluginUpdater
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
 import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
-import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation
 import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotationUtil
-import org.jetbrains.kotlin.ui.editors.quickfix.removeMarkers
 
 abstract class BaseKotlinBuilderElement {
 
@@ -43,9 +42,10 @@ abstract class BaseKotlinBuilderElement {
 
         commitFiles(existingFiles)
 
+        // Problem markers are not cleared here, they are reconciled with the new diagnostics after the analysis
         clearProblemAnnotationsFromOpenEditorsExcept(emptyList())
-        clearMarkersFromFiles(existingFiles)
 
+        KotlinAnalysisProjectCache.resetCache(javaProject.project)
         runCancellableAnalysisFor(javaProject) { analysisResult ->
             updateLineMarkers(analysisResult.bindingContext.diagnostics, existingFiles)
             KotlinLightClassGeneration.updateLightClasses(javaProject.project, kotlinFiles)
@@ -75,8 +75,10 @@ abstract class BaseKotlinBuilderElement {
     }
 
     protected fun updateLineMarkers(diagnostics: Diagnostics, affectedFiles: List<IFile>) {
-        clearMarkersFromFiles(affectedFiles)
-        addMarkersToProject(DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics), affectedFiles)
+        val annotations = DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics)
+        affectedFiles.forEach { DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(it, annotations) }
+
+        AnnotationManager.updateProblemMarkers(affectedFiles, annotations)
     }
 
     protected fun postBuild(delta: IResourceDelta?, javaProject: IJavaProject) {
@@ -125,10 +127,6 @@ abstract class BaseKotlinBuilderElement {
     }
 }
 
-private fun clearMarkersFromFiles(files: List<IFile>) {
-    files.forEach { it.removeMarkers() }
-}
-
 fun clearProblemAnnotationsFromOpenEditorsExcept(affectedFiles: List<IFile>) {
     for (window in PlatformUI.getWorkbench().getWorkbenchWindows()) {
         for (page in window.pages) {
@@ -144,13 +142,6 @@ fun clearProblemAnnotationsFromOpenEditorsExcept(affectedFiles: List<IFile>) {
     }
 }
 
-private fun addMarkersToProject(annotations: Map<IFile, List<DiagnosticAnnotation>>, affectedFiles: List<IFile>) {
-    for (file in affectedFiles) {
-        DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations)
-        annotations[file]?.forEach { AnnotationManager.addProblemMarker(it, file) }
-    }
-}
-
 interface KotlinFileFilterForBuild {
     fun isApplicable(file: IFile, javaProject: IJavaProject): Boolean
 }
@@ -20,21 +20,23 @@ import org.eclipse.core.runtime.IProgressMonitor
 import org.eclipse.core.runtime.IStatus
 import org.eclipse.core.runtime.NullProgressMonitor
 import org.eclipse.core.runtime.Status
-import org.eclipse.core.runtime.jobs.IJobChangeEvent
 import org.eclipse.core.runtime.jobs.Job
-import org.eclipse.core.runtime.jobs.JobChangeAdapter
 import org.eclipse.jdt.core.IJavaProject
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.utils.runCancellable
 import org.jetbrains.kotlin.progress.CompilationCanceledException
-import org.jetbrains.kotlin.progress.CompilationCanceledStatus
-import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
-import org.eclipse.core.resources.ResourcesPlugin
 
-public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kotlin Analysis") {
+public class KotlinAnalysisJob(
+        private val javaProject: IJavaProject,
+        private val postAnalysisTask: (AnalysisResult) -> Unit = {}
+) : Job("Kotlin Analysis") {
     init {
         setPriority(DECORATE)
         setSystem(true)
+        
+        // Analysis caches are kept per project, so analysis of independent projects can run concurrently
+        setRule(javaProject.project)
     }
     
     val familyIndicator = constructFamilyIndicator(javaProject)
@@ -45,23 +47,20 @@ public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kot
         try {
             canceled = false
             
-            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(object : CompilationCanceledStatus {
-                override fun checkCanceled() {
-                    if (canceled) throw CompilationCanceledException()
-                }
-            })
-            
             if (!javaProject.isOpen) {
                 return Status.OK_STATUS
             }
             
-            val analysisResult = KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+            val analysisResult = runCancellable({ canceled }) {
+                KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+            }
+            
+            // The task is a part of the job, so joining the job family also waits for its results, e.g. markers
+            postAnalysisTask(analysisResult)
             
             return AnalysisResultStatus(Status.OK_STATUS, analysisResult)
         } catch (e: CompilationCanceledException) {
             return AnalysisResultStatus(Status.CANCEL_STATUS, AnalysisResult.EMPTY)
-        } finally {
-            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(null)
         }
     }
     
@@ -75,7 +74,7 @@ public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kot
     class AnalysisResultStatus(val status: IStatus, val analysisResult: AnalysisResult): IStatus by status
 }
 
-private fun constructFamilyIndicator(javaProject: IJavaProject): String {
+fun constructFamilyIndicator(javaProject: IJavaProject): String {
     return javaProject.getProject().getName() + "_kotlinAnalysisFamily"
 }
 
@@ -84,19 +83,6 @@ fun runCancellableAnalysisFor(javaProject: IJavaProject, postAnalysisTask: (Anal
     Job.getJobManager().cancel(family)
     Job.getJobManager().join(family, NullProgressMonitor()) // It should be fast enough
     
-    KotlinAnalysisProjectCache.resetCache(javaProject.project)
-    
-    val analysisJob = KotlinAnalysisJob(javaProject)
-    analysisJob.setRule(ResourcesPlugin.getWorkspace().getRoot());
-    
-    analysisJob.addJobChangeListener(object : JobChangeAdapter() {
-        override fun done(event: IJobChangeEvent) {
-            val result = event.result
-            if (result is KotlinAnalysisJob.AnalysisResultStatus && result.isOK) {
-                postAnalysisTask(result.analysisResult)
-            }
-        }
-    })
-    
+    val analysisJob = KotlinAnalysisJob(javaProject, postAnalysisTask)
     analysisJob.schedule()
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import org.eclipse.core.resources.*
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.model.*
+import org.jetbrains.kotlin.core.resolve.KotlinTopLevelCallablesIndex
 import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.core.utils.asFile
 import kotlin.script.experimental.host.FileScriptSource
@@ -50,6 +51,9 @@ class ProjectChangeListener : IResourceDeltaVisitor {
         }
 
         if (delta.kind == IResourceDelta.CHANGED) {
+            if (resource is IFile && (delta.flags and IResourceDelta.CONTENT) != 0 && KotlinPsiManager.isKotlinSourceFile(resource)) {
+                KotlinTopLevelCallablesIndex.sourceFileChanged(resource)
+            }
             return true
         }
 
@@ -63,6 +67,7 @@ private fun updateManager(resource: IResource, deltaKind: Int): Boolean {
             //IF we got a source file we update the psi!
             if (KotlinPsiManager.isKotlinSourceFile(resource)) {
                 KotlinPsiManager.updateProjectPsiSources(resource, deltaKind)
+                KotlinTopLevelCallablesIndex.sourceFileChanged(resource)
             }
 
             //If we got a script file and it was deleted we remove the environment.
@@ -79,6 +84,7 @@ private fun updateManager(resource: IResource, deltaKind: Int): Boolean {
             //this project or dependet on that project. For simplicity we remove all environments for now.
             if (deltaKind == IResourceDelta.REMOVED) {
                 KotlinPsiManager.removeProjectFromManager(resource)
+                KotlinTopLevelCallablesIndex.invalidateSourceCallables(resource)
                 KotlinEnvironment.removeEnvironmentIf { it: KotlinCommonEnvironment ->
                     val tempDepPrjs = ProjectUtils.getDependencyProjects(it.javaProject)
                     resource in tempDepPrjs
@@ -19,6 +19,7 @@ package org.jetbrains.kotlin.ui.builder
 import org.eclipse.jdt.core.ElementChangedEvent
 import org.eclipse.jdt.core.IElementChangedListener
 import org.eclipse.jdt.core.IJavaElementDelta
+import org.eclipse.jdt.core.IMethod
 import org.eclipse.jdt.core.IJavaProject
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.KotlinNature
@@ -33,7 +34,13 @@ import org.eclipse.jdt.core.ITypeParameter
 import org.eclipse.jdt.internal.core.ImportContainer
 import org.eclipse.jdt.core.IPackageFragment
 import org.eclipse.jdt.core.IPackageDeclaration
+import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.jetbrains.kotlin.core.resolve.KotlinTopLevelCallablesIndex
+import org.jetbrains.kotlin.core.resolve.lang.java.EclipseJavaClassCache
+import org.jetbrains.kotlin.load.java.propertyNamesByAccessorName
+import org.jetbrains.kotlin.name.Name
+import org.eclipse.core.resources.IProject
 
 public class KotlinClassPathListener : IElementChangedListener {
     override public fun elementChanged(event: ElementChangedEvent) {
@@ -48,7 +55,7 @@ public class KotlinClassPathListener : IElementChangedListener {
             val flags = delta.getFlags()
             if ((flags and IJavaElementDelta.F_CLASSPATH_CHANGED) != 0 || 
                 (flags and IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED) != 0) {
-                KotlinEnvironment.removeEnvironment(element.project)
+                KotlinEnvironment.updateClasspath(element.project)
             }
         }
     }
@@ -56,24 +63,142 @@ public class KotlinClassPathListener : IElementChangedListener {
 
 public class KotlinJavaDeclarationsListener : IElementChangedListener {
     override fun elementChanged(event: ElementChangedEvent) {
-        resetCacheIfJavaElementDeclarationChanged(event.getDelta())
+        val changes = hashMapOf<IProject, ChangedDeclarations>()
+        val projectsToReset = hashSetOf<IProject>()
+        
+        collectChangedDeclarations(event.getDelta(), changes, projectsToReset)
+        
+        // Cached analysis of single files may depend on the changed declarations as well
+        (projectsToReset + changes.keys).forEach { KotlinAnalysisFileCache.resetCache(it) }
+        
+        projectsToReset.forEach { KotlinAnalysisProjectCache.resetCache(it) }
+        changes.forEach { (project, changed) ->
+            if (project !in projectsToReset) {
+                KotlinAnalysisProjectCache.invalidateReferences(project, changed.names, changed.typeNames)
+            }
+        }
     }
     
-    private fun resetCacheIfJavaElementDeclarationChanged(delta: IJavaElementDelta) {
-        delta.getAffectedChildren().forEach { resetCacheIfJavaElementDeclarationChanged(it) }
+    private class ChangedDeclarations {
+        val names = hashSetOf<String>()
+        val typeNames = hashSetOf<String>()
+    }
+    
+    private fun collectChangedDeclarations(
+            delta: IJavaElementDelta,
+            changes: MutableMap<IProject, ChangedDeclarations>,
+            projectsToReset: MutableSet<IProject>) {
+        delta.getAffectedChildren().forEach { collectChangedDeclarations(it, changes, projectsToReset) }
         
         val element = delta.getElement()
         when (element) {
             is IType,
             is IMember,
             is ITypeParameter,
-            is ImportContainer,
+            is ImportContainer -> {
+                val javaProject = element.getJavaProject()
+                if (javaProject != null) {
+                    changes.getOrPut(javaProject.project) { ChangedDeclarations() }.let {
+                        it.names.addAll(getAffectedNames(element))
+                        it.typeNames.addAll(getAffectedTypeNames(element))
+                    }
+                    EclipseJavaClassCache.invalidate(javaProject.project)
+                }
+            }
+            
             is IPackageDeclaration -> {
                 val javaProject = element.getJavaProject()
                 if (javaProject != null) {
-                    KotlinAnalysisProjectCache.resetCache(javaProject.project)
+                    projectsToReset.add(javaProject.project)
+                    EclipseJavaClassCache.invalidate(javaProject.project)
+                }
+            }
+            
+            is ICompilationUnit -> {
+                KotlinTopLevelCallablesIndex.javaSourceChanged(element)
+                
+                val javaProject = element.getJavaProject()
+                if (javaProject != null && isStructuralChange(delta)) {
+                    // Types of the unit are not reported separately, e.g. when the file is changed outside of an editor
+                    val changed = changes.getOrPut(javaProject.project) { ChangedDeclarations() }
+                    if (element.exists()) {
+                        element.getAllTypes().forEach {
+                            changed.names.add(it.elementName)
+                            changed.typeNames.add(it.getFullyQualifiedName('.'))
+                        }
+                    } else {
+                        // Only the primary type is known for a removed unit, its nested classes are matched by prefix
+                        val typeName = JavaCore.removeJavaLikeExtension(element.elementName)
+                        val packageName = element.getParent().elementName
+                        changed.names.add(typeName)
+                        changed.typeNames.add(if (packageName.isEmpty()) typeName else "$packageName.$typeName")
+                    }
+                    EclipseJavaClassCache.invalidate(javaProject.project)
+                }
+            }
+            
+            is IPackageFragment -> {
+                val javaProject = element.getJavaProject()
+                if (javaProject != null && isStructuralChange(delta)) {
+                    EclipseJavaClassCache.invalidate(javaProject.project)
+                    // Compilation units of an added or removed package are not reported separately
+                    KotlinTopLevelCallablesIndex.invalidateSourceCallables(javaProject.project)
                 }
             }
         }
     }
+    
+    // Changes of types inside of a compilation unit are reported by their own deltas unless the change is coarse
+    private fun isStructuralChange(delta: IJavaElementDelta): Boolean {
+        if (delta.kind != IJavaElementDelta.CHANGED) return true
+        
+        val flags = delta.flags
+        return (flags and IJavaElementDelta.F_PRIMARY_RESOURCE) != 0 ||
+                ((flags and IJavaElementDelta.F_CONTENT) != 0 && (flags and IJavaElementDelta.F_FINE_GRAINED) == 0)
+    }
+    
+    // Names which Kotlin code has to mention to be affected by the change of the element
+    private fun getAffectedNames(element: IJavaElement): Set<String> {
+        val names = hashSetOf<String>()
+        
+        if (element is ImportContainer) {
+            // Imports change the meaning of types in all declarations of the compilation unit
+            (element.getParent() as? ICompilationUnit)
+                ?.takeIf { it.exists() }
+                ?.getAllTypes()
+                ?.forEach { names.add(it.elementName) }
+            return names
+        }
+        
+        if (element is IMethod && !element.isConstructor()) {
+            names.add(element.elementName)
+            names.addAll(propertyNamesByAccessorName(Name.identifier(element.elementName)).map { it.asString() })
+        } else if (element is IMember || element is ITypeParameter) {
+            names.add(element.elementName)
+        }
+        
+        var parent: IJavaElement? = element
+        while (parent != null && parent !is ICompilationUnit) {
+            if (parent is IType) names.add(parent.elementName)
+            parent = parent.getParent()
+        }
+        
+        names.remove("")
+        return names
+    }
+    
+    // Java classes whose change affects Kotlin code depending on them
+    private fun getAffectedTypeNames(element: IJavaElement): Set<String> {
+        if (element is ImportContainer) {
+            return (element.getParent() as? ICompilationUnit)
+                ?.takeIf { it.exists() }
+                ?.getAllTypes()
+                ?.mapTo(hashSetOf()) { it.getFullyQualifiedName('.') }
+                .orEmpty()
+        }
+        
+        // Code depending on nested classes of the changed class is matched as well
+        val type = element as? IType ?: element.getAncestor(IJavaElement.TYPE) as? IType ?: return emptySet()
+        return setOf(type.getFullyQualifiedName('.'))
+    }
 }
\ No newline at end of file
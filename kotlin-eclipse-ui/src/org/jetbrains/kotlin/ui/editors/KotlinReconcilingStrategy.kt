@@ -17,26 +17,60 @@
 package org.jetbrains.kotlin.ui.editors
 
 import org.eclipse.core.resources.IFile
+import org.eclipse.core.runtime.IProgressMonitor
 import org.eclipse.core.runtime.ISafeRunnable
 import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
 import org.eclipse.jface.text.IRegion
 import org.eclipse.jface.text.reconciler.DirtyRegion
 import org.eclipse.jface.text.reconciler.IReconcilingStrategy
+import org.eclipse.jface.text.reconciler.IReconcilingStrategyExtension
 import org.eclipse.jface.util.SafeRunnable
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
-import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.core.utils.runCancellable
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
+import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.Callable
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
+/**
+ * Result of a single reconcile: the committed file and its analysis, shared by all [KotlinReconcilingListener]s.
+ * [ktFile] and [analysisResult] are `null` if the file is not applicable for Kotlin analysis.
+ */
+class KotlinReconcileSnapshot(
+        val file: IFile,
+        val modificationStamp: Long?,
+        val ktFile: KtFile?,
+        val analysisResult: AnalysisResultWithProvider?)
+
+/**
+ * Listeners are called in parallel on background threads after the snapshot is computed. A reconcile is canceled
+ * as soon as the document changes again, so listeners should call
+ * [ProgressIndicatorAndCompilationCanceledStatus.checkCanceled] before publishing results.
+ */
 interface KotlinReconcilingListener {
-    fun reconcile(file: IFile, editor: KotlinEditor)
+    fun reconcile(snapshot: KotlinReconcileSnapshot, editor: KotlinEditor)
 }
 
-class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy {
-    private val reconcilingListeners = hashSetOf<KotlinReconcilingListener>()
+/**
+ * The reconciler restarts its delay on each document change, so a burst of edits is reconciled once. It also
+ * cancels its progress monitor when the document changes during a reconcile: analysis running for the outdated
+ * text is interrupted and its results are not published.
+ */
+class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy, IReconcilingStrategyExtension {
+    private val reconcilingListeners = CopyOnWriteArraySet<KotlinReconcilingListener>()
     
     private val RECONCILING_LOCK = Any()
     
+    @Volatile private var progressMonitor: IProgressMonitor? = null
+    
     fun addListener(listener: KotlinReconcilingListener) {
         reconcilingListeners.add(listener)
     }
@@ -47,6 +81,12 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
     
     override fun setDocument(document: IDocument?) {}
     
+    override fun setProgressMonitor(monitor: IProgressMonitor?) {
+        progressMonitor = monitor
+    }
+    
+    override fun initialReconcile() {}
+    
     override fun reconcile(dirtyRegion: DirtyRegion?, subRegion: IRegion?) {}
     
     override fun reconcile(partition: IRegion?) {
@@ -55,10 +95,7 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
         		override fun run() {
         			val file = editor.eclipseFile
 					if (file != null) {
-						resetCache(file)
-						KotlinPsiManager.commitFile(file, editor.document)
-						
-						reconcilingListeners.forEach { it.reconcile(file, editor) }
+						reconcile(file, editor.document)
 					} else {
 						KotlinLogger.logError("Failed to retrieve IFile from editor $editor", null)
 					}
@@ -78,8 +115,57 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
         }
     }
     
+    private fun reconcile(file: IFile, document: IDocument) {
+        val monitor = progressMonitor
+        val modificationStamp = (document as? IDocumentExtension4)?.modificationStamp
+        val isOutdated = {
+            monitor?.isCanceled == true ||
+                    (modificationStamp != null && (document as IDocumentExtension4).modificationStamp != modificationStamp)
+        }
+        
+        try {
+            val snapshot = runCancellable(isOutdated) {
+                resetCache(file)
+                
+                val ktFile = KotlinPsiManager.getKotlinFileIfExist(file, document.get())
+                val analysisResult = ktFile?.let { KotlinAnalyzer.analyzeFile(it) }
+                
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
+                KotlinReconcileSnapshot(file, modificationStamp, ktFile, analysisResult)
+            }
+            
+            notifyListeners(snapshot, isOutdated)
+        } catch (e: CompilationCanceledException) {
+            // The document was changed, the next reconcile will compute actual results
+        }
+    }
+    
+    private fun notifyListeners(snapshot: KotlinReconcileSnapshot, isOutdated: () -> Boolean) {
+        val tasks = reconcilingListeners.map { listener ->
+            listenersExecutor.submit(Callable {
+                runCancellable(isOutdated) { listener.reconcile(snapshot, editor) }
+            })
+        }
+        
+        for (task in tasks) {
+            try {
+                task.get()
+            } catch (e: ExecutionException) {
+                val cause = e.cause ?: e
+                if (cause !is CompilationCanceledException) {
+                    KotlinLogger.logError(cause)
+                }
+            }
+        }
+    }
+    
     private fun resetCache(file: IFile) {
-        KotlinAnalysisProjectCache.resetCache(file.project)
-        KotlinAnalysisFileCache.resetCache()
+        KotlinAnalysisFileCache.resetCache(file.project)
+    }
+    
+    companion object {
+        private val listenersExecutor = Executors.newCachedThreadPool { runnable ->
+            Thread(runnable, "Kotlin reconciling listener").apply { isDaemon = true }
+        }
     }
 }
\ No newline at end of file
@@ -16,9 +16,11 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.ui.editors
 
+import org.eclipse.core.resources.IFile
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jface.text.IDocument
+import org.eclipse.swt.widgets.Composite
 import org.eclipse.ui.PlatformUI
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
@@ -42,7 +44,21 @@ class KotlinScriptEditor : KotlinCommonEditor() {
     override val isScript: Boolean
         get() = true
 
+    // File whose environment is kept alive while the editor is open
+    private var retainedFile: IFile? = null
+
+    override fun createPartControl(parent: Composite) {
+        retainedFile = eclipseFile?.also { KotlinScriptEnvironment.retainOpenFile(it) }
+        super.createPartControl(parent)
+    }
+
     override fun dispose() {
+        val released = retainedFile?.let { KotlinScriptEnvironment.releaseOpenFile(it) } ?: true
+        retainedFile = null
+
+        // The file may still be shown in another editor
+        if (!released) return
+
         eclipseFile?.let {
             KotlinScriptEnvironment.removeKotlinEnvironment(it)
             KotlinPsiManager.removeFile(it)
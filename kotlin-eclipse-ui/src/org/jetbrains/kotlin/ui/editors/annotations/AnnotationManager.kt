@@ -19,6 +19,10 @@ package org.jetbrains.kotlin.ui.editors.annotations
 import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IMarker
 import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResource
+import org.eclipse.core.resources.IWorkspace
+import org.eclipse.core.resources.IWorkspaceRunnable
+import org.eclipse.core.resources.ResourcesPlugin
 import org.eclipse.core.runtime.CoreException
 import org.eclipse.jdt.core.IJavaModelMarker
 import org.eclipse.jface.text.ISynchronizable
@@ -31,13 +35,16 @@ import org.eclipse.ui.texteditor.MarkerAnnotation
 import org.eclipse.ui.texteditor.MarkerUtilities
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
-import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
+import org.jetbrains.kotlin.ui.editors.KotlinReconcileSnapshot
 import org.jetbrains.kotlin.ui.editors.KotlinReconcilingListener
 import org.jetbrains.kotlin.ui.editors.quickfix.addDiagnostics
 import org.jetbrains.kotlin.ui.editors.quickfix.kotlinQuickFixes
 import org.jetbrains.kotlin.ui.editors.quickfix.removeMarkers
+import org.jetbrains.kotlin.ui.editors.quickfix.setMarkersDiagnostics
 
 object AnnotationManager {
 
@@ -59,39 +66,96 @@ object AnnotationManager {
         updateAnnotations(annotationModel, newAnnotations, oldAnnotations)
     }
 
+    private val PROBLEM_MARKER_ATTRIBUTES = arrayOf(
+        IMarker.MESSAGE,
+        IMarker.SEVERITY,
+        IMarker.CHAR_START,
+        IMarker.CHAR_END,
+        IMarker.LOCATION,
+        IMarker.LINE_NUMBER,
+        MARKED_TEXT,
+        IS_UNRESOLVED_REFERENCE,
+        CAN_FIX_PROBLEM
+    )
+
     fun clearAllMarkersFromProject(project: IProject) {
-        try {
-            KotlinPsiManager.getFilesByProject(project).forEach {
-                it.removeMarkers()
-            }
-        } catch (e: CoreException) {
-            KotlinLogger.logError(e)
+        removeProblemMarkers(KotlinPsiManager.getFilesByProject(project))
+    }
+
+    fun removeProblemMarkers(files: Collection<IFile>) {
+        runMarkersOperation {
+            files.forEach { it.removeMarkers() }
         }
     }
 
-    fun addProblemMarker(annotation: DiagnosticAnnotation, file: IFile) =
+    fun addProblemMarker(annotation: DiagnosticAnnotation, file: IFile) {
         with(file.createMarker(MARKER_PROBLEM_TYPE)) {
-            setAttribute(IMarker.MESSAGE, annotation.text)
-            setAttribute(IMarker.SEVERITY, annotation.markerSeverity)
-            setAttribute(IMarker.CHAR_START, annotation.offset)
-            setAttribute(IMarker.CHAR_END, annotation.endOffset)
-            setAttribute(IMarker.LOCATION, "line ${annotation.line}")
-            setAttribute(IMarker.LINE_NUMBER, annotation.line)
-            setAttribute(MARKED_TEXT, annotation.markedText)
+            setAttributes(PROBLEM_MARKER_ATTRIBUTES, getProblemMarkerAttributes(annotation))
             annotation.diagnostic?.let {
                 addDiagnostics(it)
             }
+        }
+    }
+
+    /**
+     * Makes problem markers of [files] correspond to [annotations] in one workspace operation. Markers which have
+     * not changed are kept, so only actual changes are reported to resource listeners, e.g. to the Problems view.
+     */
+    fun updateProblemMarkers(files: Collection<IFile>, annotations: Map<IFile, List<DiagnosticAnnotation>>) {
+        if (files.isEmpty()) return
+
+        runMarkersOperation {
+            files.filter { it.exists() }.forEach { updateProblemMarkers(it, annotations[it].orEmpty()) }
+        }
+    }
 
-            val diagnostic = annotation.diagnostic
-            val isUnresolvedReference = if (diagnostic != null) {
-                DiagnosticAnnotationUtil.isUnresolvedReference(diagnostic.factory)
-            } else false
-            setAttribute(IS_UNRESOLVED_REFERENCE, isUnresolvedReference)
+    private fun updateProblemMarkers(file: IFile, annotations: List<DiagnosticAnnotation>) {
+        val existingMarkers = file.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)
+            .groupByTo(hashMapOf()) { it.getAttributes(PROBLEM_MARKER_ATTRIBUTES).toList() }
 
-            val canBeFixed = diagnostic?.let { kotlinQuickFixes.containsKey(it.factory) } ?: false
-            setAttribute(CAN_FIX_PROBLEM, canBeFixed)
+        val markersDiagnostics = hashMapOf<IMarker, Diagnostic>()
+        for (annotation in annotations) {
+            val attributes = getProblemMarkerAttributes(annotation)
+            val marker = existingMarkers[attributes.toList()]?.removeLastOrNull()
+                ?: file.createMarker(MARKER_PROBLEM_TYPE).apply { setAttributes(PROBLEM_MARKER_ATTRIBUTES, attributes) }
+
+            annotation.diagnostic?.let { markersDiagnostics[marker] = it }
         }
 
+        existingMarkers.values.flatten().forEach { it.delete() }
+        file.setMarkersDiagnostics(markersDiagnostics)
+    }
+
+    private fun getProblemMarkerAttributes(annotation: DiagnosticAnnotation): Array<Any?> {
+        val diagnostic = annotation.diagnostic
+        val isUnresolvedReference = if (diagnostic != null) {
+            DiagnosticAnnotationUtil.isUnresolvedReference(diagnostic.factory)
+        } else false
+        val canBeFixed = diagnostic?.let { kotlinQuickFixes.containsKey(it.factory) } ?: false
+
+        return arrayOf(
+            annotation.text,
+            annotation.markerSeverity,
+            annotation.offset,
+            annotation.endOffset,
+            "line ${annotation.line}",
+            annotation.line,
+            annotation.markedText,
+            isUnresolvedReference,
+            canBeFixed
+        )
+    }
+
+    // Resource changes are reported once at the end, AVOID_UPDATE lets the workspace throttle notifications
+    private fun runMarkersOperation(operation: () -> Unit) {
+        try {
+            // Markers do not need a scheduling rule
+            ResourcesPlugin.getWorkspace().run(IWorkspaceRunnable { operation() }, null, IWorkspace.AVOID_UPDATE, null)
+        } catch (e: CoreException) {
+            KotlinLogger.logError(e)
+        }
+    }
+
     fun removeAnnotations(editor: KotlinFileEditor, annotationType: String) {
         updateAnnotations(editor, emptyMap(), annotationType)
     }
@@ -144,15 +208,14 @@ object AnnotationManager {
 }
 
 object KotlinLineAnnotationsReconciler : KotlinReconcilingListener {
-    override fun reconcile(file: IFile, editor: KotlinEditor) {
-        val jetFile =
-            if (editor.isScript) editor.parsedFile else KotlinPsiManager.getKotlinFileIfExist(file, editor.document.get())
-
-        jetFile?.let {
-            val diagnostics = KotlinAnalyzer.analyzeFile(it).analysisResult.bindingContext.diagnostics
+    override fun reconcile(snapshot: KotlinReconcileSnapshot, editor: KotlinEditor) {
+        snapshot.analysisResult?.let {
+            val diagnostics = it.analysisResult.bindingContext.diagnostics
             val annotations = DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics)
 
-            DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations)
+            DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(snapshot.file, annotations)
+
+            ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
             DiagnosticAnnotationUtil.INSTANCE.updateAnnotations(editor.javaEditor, annotations)
         }
     }
@@ -3,15 +3,12 @@ package org.jetbrains.kotlin.ui.editors.completion
 import com.intellij.psi.PsiElement
 import kotlinx.coroutines.*
 import org.eclipse.core.resources.IFile
-import org.eclipse.jdt.core.Flags
 import org.eclipse.jdt.core.IJavaProject
-import org.eclipse.jdt.core.JavaCore
-import org.eclipse.jdt.core.search.*
-import org.eclipse.jdt.internal.ui.search.JavaSearchScopeFactory
 import org.jetbrains.kotlin.config.LanguageFeature
 import org.jetbrains.kotlin.config.LanguageVersionSettings
+import org.jetbrains.kotlin.core.model.getEnvironment
+import org.jetbrains.kotlin.core.resolve.CallableContainer
 import org.jetbrains.kotlin.core.resolve.KotlinResolutionFacade
-import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.descriptors.*
 import org.jetbrains.kotlin.eclipse.ui.utils.KotlinEclipseScope
 import org.jetbrains.kotlin.eclipse.ui.utils.KotlinImageProvider
@@ -23,7 +20,6 @@ import org.jetbrains.kotlin.incremental.KotlinLookupLocation
 import org.jetbrains.kotlin.incremental.components.NoLookupLocation
 import org.jetbrains.kotlin.js.resolve.diagnostics.findPsi
 import org.jetbrains.kotlin.load.kotlin.toSourceElement
-import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.*
@@ -46,6 +42,7 @@ import org.jetbrains.kotlin.synthetic.SyntheticJavaPropertyDescriptor
 import org.jetbrains.kotlin.types.KotlinType
 import org.jetbrains.kotlin.types.expressions.DoubleColonLHS
 import org.jetbrains.kotlin.types.typeUtil.isSubtypeOf
+import org.jetbrains.kotlin.types.typeUtil.supertypes
 import org.jetbrains.kotlin.types.typeUtil.isUnit
 import org.jetbrains.kotlin.ui.editors.codeassist.KotlinBasicCompletionProposal
 import org.jetbrains.kotlin.ui.editors.codeassist.KotlinImportCallableCompletionProposal
@@ -374,7 +371,6 @@ class KotlinReferenceVariantsHelper(
                     receiverTypes,
                     kindFilter,
                     nameFilter,
-                    javaProject,
                     ktFile,
                     file,
                     identifierPart,
@@ -393,76 +389,34 @@ class KotlinReferenceVariantsHelper(
         receiverTypes: Collection<KotlinType>,
         kindFilter: DescriptorKindFilter,
         nameFilter: (Name) -> Boolean,
-        javaProject: IJavaProject,
         ktFile: KtFile,
         file: IFile,
         identifierPart: String?,
         allowNoReceiver: Boolean
     ) {
         if (!identifierPart.isNullOrBlank()) {
-            val searchEngine = SearchEngine()
-
-            val dependencyProjects = arrayListOf<IJavaProject>().apply {
-                addAll(ProjectUtils.getDependencyProjects(javaProject).map { JavaCore.create(it) })
-                add(javaProject)
+            // Extensions are looked up by the names of receiver types and their supertypes
+            val receiverTypeNames = receiverTypes.flatMapTo(hashSetOf()) { type ->
+                (listOf(type) + type.supertypes()).mapNotNull { it.constructor.declarationDescriptor?.name?.asString() }
             }
 
-            val javaProjectSearchScope =
-                JavaSearchScopeFactory.getInstance().createJavaSearchScope(dependencyProjects.toTypedArray(), false)
-
-            val tempClassNames = hashMapOf<String, String>()
-
-            val collector = object : MethodNameMatchRequestor() {
-                override fun acceptMethodNameMatch(match: MethodNameMatch) {
-                    if (Flags.isPublic(match.modifiers)) {
-                        tempClassNames[match.method.declaringType.getTypeQualifiedName('.')] =
-                            match.method.declaringType.packageFragment.elementName
+            val tempPackages = mutableListOf<Pair<PackageViewDescriptor, List<String>>>()
+            val tempClasses = mutableListOf<Pair<ClassDescriptor, List<String>>>()
+            val tempJavaClasses = mutableListOf<Pair<ClassDescriptor, List<String>>>()
+
+            getEnvironment(file).topLevelCallablesIndex
+                .findCallables(identifierPart, receiverTypeNames, allowNoReceiver, moduleDescriptor)
+                .groupBy({ it.container }, { it.name })
+                .forEach { (container, names) ->
+                    when (container) {
+                        is CallableContainer.Package ->
+                            tempPackages.add(resolutionFacade.moduleDescriptor.getPackage(container.fqName) to names)
+                        is CallableContainer.ObjectDeclaration ->
+                            moduleDescriptor.findClassAcrossModuleDependencies(container.classId)?.let { tempClasses.add(it to names) }
+                        is CallableContainer.JavaClass ->
+                            moduleDescriptor.findClassAcrossModuleDependencies(container.classId)?.let { tempJavaClasses.add(it to names) }
                     }
                 }
-            }
-
-            searchEngine.searchAllMethodNames(
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                identifierPart.toCharArray(),
-                SearchPattern.R_PREFIX_MATCH,
-                javaProjectSearchScope,
-                collector,
-                IJavaSearchConstants.FORCE_IMMEDIATE_SEARCH,
-                null
-            )
-
-            val tempCapitalIdentifier =
-                identifierPart.replaceFirstChar { if (it.isLowerCase()) it.titlecase(Locale.getDefault()) else it.toString() }
-
-            searchEngine.searchAllMethodNames(
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                null,
-                SearchPattern.R_EXACT_MATCH,
-                "get$tempCapitalIdentifier".toCharArray(),
-                SearchPattern.R_PREFIX_MATCH,
-                javaProjectSearchScope,
-                collector,
-                IJavaSearchConstants.FORCE_IMMEDIATE_SEARCH,
-                null
-            )
-
-            val tempPackages = mutableListOf<PackageViewDescriptor>()
-
-            val tempClasses = tempClassNames.mapNotNull { (className, packageName) ->
-                val tempClassId = ClassId(FqName(packageName), FqName(className), false)
-                moduleDescriptor.findClassAcrossModuleDependencies(tempClassId) ?: run {
-                    tempPackages.add(resolutionFacade.moduleDescriptor.getPackage(FqName(packageName)))
-                    null
-                }
-            }
 
             val importsSet = ktFile.importDirectives
                 .mapNotNull { it.importedFqName?.asString() }
@@ -470,11 +424,15 @@ class KotlinReferenceVariantsHelper(
 
             val originPackage = ktFile.packageFqName.asString()
 
-            fun MemberScope.filterByKindAndName() = getDescriptorsFiltered(
-                kindFilter.intersect(CALLABLES),
-                nameFilter
-            ).asSequence()
-                .filterIsInstance<CallableDescriptor>()
+            // Only callables with the names found in the index are loaded from the scope
+            fun MemberScope.filterByKindAndName(names: List<String>) = names.asSequence()
+                .map { Name.identifier(it) }
+                .filter(nameFilter)
+                .flatMap { name ->
+                    getContributedFunctions(name, NoLookupLocation.FROM_IDE).asSequence() +
+                            getContributedVariables(name, NoLookupLocation.FROM_IDE).asSequence()
+                }
+                .filter { kindFilter.accepts(it) }
                 .filter { callDesc ->
                     val tempFuzzy = callDesc.fuzzyExtensionReceiverType()
                     //We need all where the receiver matches.
@@ -486,7 +444,8 @@ class KotlinReferenceVariantsHelper(
                         val tempContainingKotlinType = containing.classValueType
                         val tempIsObject = containing.kind == ClassKind.OBJECT
                         val tempContainingIsReceiver =  tempContainingKotlinType != null && receiverTypes.any { receiver -> receiver.isSubtypeOf(tempContainingKotlinType) }
-                        tempIsObject && !tempContainingIsReceiver
+                        val tempIsStatic = callDesc.dispatchReceiverParameter == null
+                        (tempIsObject || tempIsStatic) && !tempContainingIsReceiver
                     } == true
                     val noReceiverMatches = allowNoReceiver && tempFuzzy == null && isTopLevelOrObjectCallable
                     noReceiverMatches || anyReceiverMatch
@@ -497,8 +456,9 @@ class KotlinReferenceVariantsHelper(
                 }.toList()
 
             val tempDeferreds =
-                tempPackages.map { desc -> KotlinEclipseScope.async { desc.memberScope.filterByKindAndName() } } +
-                        tempClasses.map { desc -> KotlinEclipseScope.async { desc.unsubstitutedMemberScope.filterByKindAndName() } }
+                tempPackages.map { (desc, names) -> KotlinEclipseScope.async { desc.memberScope.filterByKindAndName(names) } } +
+                        tempClasses.map { (desc, names) -> KotlinEclipseScope.async { desc.unsubstitutedMemberScope.filterByKindAndName(names) } } +
+                        tempJavaClasses.map { (desc, names) -> KotlinEclipseScope.async { desc.staticScope.filterByKindAndName(names) } }
 
             val tempDescriptors = tempDeferreds.awaitAll().flatten()
 
@@ -40,9 +40,14 @@ import org.eclipse.swt.widgets.Display
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.runJob
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.ui.editors.Configuration.KotlinPresentationReconciler
 import org.jetbrains.kotlin.ui.editors.KotlinCommonEditor
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
+import org.jetbrains.kotlin.ui.editors.KotlinReconcileSnapshot
 import org.jetbrains.kotlin.ui.editors.KotlinReconcilingListener
 import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
 import org.jetbrains.kotlin.ui.editors.highlighting.HighlightPosition.SmartCast
@@ -83,24 +88,42 @@ class KotlinSemanticHighlighter(
             }
     }
 
-    override fun reconcile(file: IFile, editor: KotlinEditor) {
-        val document = when (editor) {
-            is KotlinCommonEditor -> editor.getDocumentSafely()
-            else -> null
-        }
+    override fun reconcile(snapshot: KotlinReconcileSnapshot, editor: KotlinEditor) {
+        val document = getDocument(editor) ?: return
         
-        if (document == null) return
+        updateHighlighting(document, snapshot.ktFile, snapshot.analysisResult?.analysisResult?.bindingContext)
+    }
+    
+    private fun reconcile(file: IFile, editor: KotlinEditor) {
+        val document = getDocument(editor) ?: return
         
         KotlinPsiManager.commitFile(file, document)
         
-        removeAllPositions(document)
-        
         val ktFile = editor.parsedFile
-        if (ktFile == null) return
+        updateHighlighting(document, ktFile, ktFile?.let { KotlinAnalyzer.analyzeFile(it).analysisResult.bindingContext })
+    }
+    
+    private fun getDocument(editor: KotlinEditor): IDocument? = when (editor) {
+        is KotlinCommonEditor -> editor.getDocumentSafely()
+        else -> null
+    }
+    
+    private fun updateHighlighting(document: IDocument, ktFile: KtFile?, bindingContext: BindingContext?) {
+        if (ktFile == null || bindingContext == null) {
+            removeAllPositions(document)
+            return
+        }
         
         val highlightingVisitor = KotlinSemanticHighlightingVisitor(ktFile, editor.document)
+        val positions = highlightingVisitor.computeHighlightingRanges(bindingContext)
+        
+        // Keep the previous highlighting if the document was changed while computing the new one
+        ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
+        
+        removeAllPositions(document)
+        
         val smartCasts = arrayListOf<SmartCast>()
-        highlightingVisitor.computeHighlightingRanges().forEach { position -> 
+        positions.forEach { position -> 
             when (position) {
                 is StyleAttributes -> editor.document.addPosition(category, position)
                 is SmartCast -> smartCasts.add(position)
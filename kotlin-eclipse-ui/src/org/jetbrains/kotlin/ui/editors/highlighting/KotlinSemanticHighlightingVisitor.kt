@@ -36,9 +36,11 @@ public class KotlinSemanticHighlightingVisitor(val ktFile: KtFile, val document:
     
     private val positions = arrayListOf<HighlightPosition>()
     
-    fun computeHighlightingRanges(): List<HighlightPosition> {
+    fun computeHighlightingRanges(
+            bindingContext: BindingContext = KotlinAnalysisFileCache.getAnalysisResult(ktFile).analysisResult.bindingContext
+    ): List<HighlightPosition> {
         positions.clear()
-        bindingContext = KotlinAnalysisFileCache.getAnalysisResult(ktFile).analysisResult.bindingContext
+        this.bindingContext = bindingContext
         ktFile.acceptChildren(this)
         return positions.toList() // make copy
     }
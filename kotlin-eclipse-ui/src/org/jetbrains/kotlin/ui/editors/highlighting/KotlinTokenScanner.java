@@ -1,8 +1,10 @@
 package org.jetbrains.kotlin.ui.editors.highlighting;
 
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.ResourcesPlugin;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.eclipse.jdt.ui.text.IColorManager;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.IDocument;
@@ -12,34 +14,67 @@ import org.eclipse.jface.text.rules.ITokenScanner;
 import org.eclipse.jface.text.rules.Token;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment;
-import org.jetbrains.kotlin.core.model.KotlinEnvironment;
-import org.jetbrains.kotlin.core.model.KotlinEnvironmentKt;
-import org.jetbrains.kotlin.core.model.KotlinNature;
 import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil;
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
-import org.jetbrains.kotlin.psi.KtFile;
-import org.jetbrains.kotlin.psi.KtPsiFactory;
+import org.jetbrains.kotlin.kdoc.lexer.KDocLexer;
+import org.jetbrains.kotlin.kdoc.lexer.KDocTokens;
+import org.jetbrains.kotlin.kdoc.parser.KDocKnownTag;
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+import org.jetbrains.kotlin.lexer.KtKeywordToken;
+import org.jetbrains.kotlin.lexer.KtTokens;
 import org.jetbrains.kotlin.ui.editors.KotlinEditor;
-import org.jetbrains.kotlin.ui.formatter.KotlinFormatterKt;
 
-import com.intellij.psi.PsiElement;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.text.StringUtilRt;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 
+/**
+ * Scanner for syntax coloring which works on the Kotlin lexer only. Lexing is restarted from the closest
+ * remembered lexer state before the requested range, states after the first changed offset are dropped.
+ */
 public class KotlinTokenScanner implements ITokenScanner {
-    private final KotlinEditor editor;
+    private static final int CHECKPOINT_INTERVAL = 256;
+    
+    private static final TokenSet IGNORED_FOR_LOOKUP = TokenSet.orSet(KtTokens.WHITESPACES, KtTokens.COMMENTS);
+    
+    private static final Set<String> MODIFIER_KEYWORDS = keywordValues(KtTokens.MODIFIER_KEYWORDS);
+    
+    private static final Set<String> SOFT_KEYWORDS = keywordValues(KtTokens.SOFT_KEYWORDS);
+    
+    private static final TokenSet NOT_KEYWORD_NEIGHBOURS = TokenSet.create(
+            KtTokens.DOT, KtTokens.SAFE_ACCESS, KtTokens.COLONCOLON, KtTokens.EQ, KtTokens.COMMA, 
+            KtTokens.RPAR, KtTokens.RBRACKET, KtTokens.COLON, KtTokens.SEMICOLON, 
+            KtTokens.FUN_KEYWORD, KtTokens.VAL_KEYWORD, KtTokens.VAR_KEYWORD);
+    
+    private static final TokenSet DECLARATION_BODY_STARTS = TokenSet.create(
+            KtTokens.LBRACE, KtTokens.EQ, KtTokens.COLON);
+    
     private final KotlinTokensFactory kotlinTokensFactory;
     
-    private KtFile jetFile = null;
-    private int offset = 0;
-    private int rangeEnd = 0;
-    private PsiElement lastElement = null;
+    private final KotlinLexer lexer = new KotlinLexer();
+    private final KotlinLexer lookupLexer = new KotlinLexer();
+    private final KDocLexer kDocLexer = new KDocLexer();
+    
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private IDocument checkpointsDocument = null;
+    private String text = "";
+    
     private IDocument document;
+    private int rangeStart = 0;
+    private int rangeEnd = 0;
+    private int tokensSinceCheckpoint = 0;
+    private IElementType previousSignificantType = null;
+    private boolean lineBreakBeforeNextType = false;
+    
+    private boolean inKDoc = false;
+    private String lastKDocTagName = null;
+    private int tokenStart = 0;
+    private int tokenEnd = 0;
     
     private KotlinTokenScanner(
             @NotNull IPreferenceStore preferenceStore, 
-            @NotNull IColorManager colorManager,
-            @Nullable KotlinEditor editor) {
-        this.editor = editor;
+            @NotNull IColorManager colorManager) {
         kotlinTokensFactory = new KotlinTokensFactory(preferenceStore, colorManager);
     }
     
@@ -47,88 +82,288 @@ public class KotlinTokenScanner implements ITokenScanner {
             @NotNull IPreferenceStore preferenceStore, 
             @NotNull IColorManager colorManager,
             @NotNull KotlinEditor editor) {
-        return new KotlinTokenScanner(preferenceStore, colorManager, editor);
+        return new KotlinTokenScanner(preferenceStore, colorManager);
     }
     
     public static KotlinTokenScanner createScannerForCompareViewOfKtSourceFile(
             @NotNull IPreferenceStore preferenceStore, 
             @NotNull IColorManager colorManager) {
-        return new KotlinTokenScanner(preferenceStore, colorManager, null);
+        return new KotlinTokenScanner(preferenceStore, colorManager);
     }
     
     @Override
     public void setRange(IDocument document, int offset, int length) {
         this.document = document;
-        jetFile = createKtFile(document);
-        this.offset = LineEndUtil.convertCrToDocumentOffset(document, offset);
+        updateText(document);
+        
+        this.rangeStart = LineEndUtil.convertCrToDocumentOffset(document, offset);
         this.rangeEnd = LineEndUtil.convertCrToDocumentOffset(document, offset + length);
-        this.lastElement = null;
+        
+        Checkpoint checkpoint = findCheckpoint(rangeStart);
+        lexer.start(text, checkpoint.offset, text.length(), 0);
+        previousSignificantType = checkpoint.previousSignificantType;
+        tokensSinceCheckpoint = 0;
+        inKDoc = false;
+        
+        // Skip tokens which end before the requested range
+        while (lexer.getTokenType() != null && lexer.getTokenEnd() <= rangeStart) {
+            advanceLexer();
+        }
     }
 
     @Override
     public IToken nextToken() {
-        if (rangeEnd <= offset) {
+        if (inKDoc) {
+            kDocLexer.advance();
+            if (kDocLexer.getTokenType() != null) {
+                return setCurrentToken(kDocLexer);
+            }
+            
+            inKDoc = false;
+            advanceLexer();
+        }
+        
+        IElementType type = lexer.getTokenType();
+        if (type == null || lexer.getTokenStart() >= rangeEnd) {
             return Token.EOF;
         }
         
-        if (jetFile == null) return Token.EOF;
+        if (type == KtTokens.DOC_COMMENT) {
+            kDocLexer.start(text, lexer.getTokenStart(), lexer.getTokenEnd());
+            while (kDocLexer.getTokenType() != null && kDocLexer.getTokenEnd() <= rangeStart) {
+                kDocLexer.advance();
+            }
+            
+            if (kDocLexer.getTokenType() != null) {
+                inKDoc = true;
+                lastKDocTagName = null;
+                return setCurrentToken(kDocLexer);
+            }
+        }
         
-        lastElement = jetFile.findElementAt(offset);
-        if (lastElement != null) {
-            offset = lastElement.getTextRange().getEndOffset();
-            return kotlinTokensFactory.getToken(lastElement);
+        IToken token = setCurrentToken(lexer);
+        if (type == KtTokens.IDENTIFIER && isSoftKeyword()) {
+            token = kotlinTokensFactory.getKeywordToken();
         }
         
-        return Token.EOF;
+        advanceLexer();
+        
+        return token;
     }
 
     @Override
     public int getTokenOffset() {
-        return LineEndUtil.convertLfToDocumentOffset(jetFile.getText(), lastElement.getTextOffset(), document);
+        return LineEndUtil.convertLfToDocumentOffset(text, tokenStart, document);
     }
 
     @Override
     public int getTokenLength() {
-        int length = lastElement.getTextLength();
+        int length = tokenEnd - tokenStart;
         if (TextUtilities.getDefaultLineDelimiter(document).length() > 1) {
-            length += IndenterUtil.getLineSeparatorsOccurences(lastElement.getText());
+            length += IndenterUtil.getLineSeparatorsOccurences(text.substring(tokenStart, tokenEnd));
         }
         return length;
     }
     
-    @Nullable
-    private KtFile createKtFile(@NotNull IDocument document) {
-        if (editor != null) {
-            IFile eclipseFile = editor.getEclipseFile();
-            if (eclipseFile != null) {
-                return createKtFile(KotlinEnvironmentKt.getEnvironment(eclipseFile), eclipseFile.getName());
-            } 
+    @NotNull
+    private IToken setCurrentToken(@NotNull Lexer currentLexer) {
+        IElementType tokenType = currentLexer.getTokenType();
+        tokenStart = currentLexer.getTokenStart();
+        tokenEnd = currentLexer.getTokenEnd();
+        
+        if (tokenType == KDocTokens.TAG_NAME) {
+            lastKDocTagName = text.substring(tokenStart + 1, tokenEnd);
+        }
+        
+        // The parser turns text after tags with subjects into references
+        if (tokenType == KDocTokens.MARKDOWN_LINK || 
+                (tokenType == KDocTokens.TEXT_OR_LINK && isTagWithSubject(lastKDocTagName))) {
+            return kotlinTokensFactory.getIdentifierToken();
+        }
+        
+        if (tokenType == KDocTokens.TEXT_OR_LINK) {
+            return kotlinTokensFactory.getToken(KDocTokens.TEXT);
+        }
+        
+        return kotlinTokensFactory.getToken(tokenType);
+    }
+    
+    private void advanceLexer() {
+        IElementType type = lexer.getTokenType();
+        if (type != null && !IGNORED_FOR_LOOKUP.contains(type)) {
+            previousSignificantType = type;
+        }
+        
+        lexer.advance();
+        
+        tokensSinceCheckpoint++;
+        if (tokensSinceCheckpoint >= CHECKPOINT_INTERVAL && lexer.getTokenType() != null && lexer.getState() == 0) {
+            int offset = lexer.getTokenStart();
+            if (offset > checkpoints.get(checkpoints.size() - 1).offset) {
+                checkpoints.add(new Checkpoint(offset, previousSignificantType));
+            }
+            tokensSinceCheckpoint = 0;
+        }
+    }
+    
+    /**
+     * Soft and modifier keywords are identifiers for the lexer, they are distinguished by the parser.
+     * Here they are treated as keywords unless their neighbours show that they are used as names.
+     */
+    private boolean isSoftKeyword() {
+        String name = text.substring(tokenStart, tokenEnd);
+        boolean isModifier = MODIFIER_KEYWORDS.contains(name);
+        if (!isModifier && !SOFT_KEYWORDS.contains(name)) {
+            return false;
+        }
+        
+        if (previousSignificantType != null && NOT_KEYWORD_NEIGHBOURS.contains(previousSignificantType)) {
+            return false;
+        }
+        
+        IElementType nextType = findNextSignificantType();
+        if (isModifier) {
+            return !lineBreakBeforeNextType && 
+                    (nextType == KtTokens.IDENTIFIER || (nextType != null && KtTokens.KEYWORDS.contains(nextType)));
+        }
+        
+        if (nextType == KtTokens.LPAR) {
+            return isSoftKeywordBeforeParentheses(name);
+        }
+        
+        return nextType == KtTokens.IDENTIFIER || nextType == KtTokens.LBRACE ||
+                (nextType != null && KtTokens.KEYWORDS.contains(nextType));
+    }
+    
+    /**
+     * Distinguishes declarations like `get() = ...`, `set(value) { ... }` or `catch (e: Exception) { ... }`
+     * from calls like `get(0)` or `init(x)`: a declaration has a body, a type or nothing after the parentheses.
+     */
+    private boolean isSoftKeywordBeforeParentheses(@NotNull String name) {
+        if (name.equals(KtTokens.CONSTRUCTOR_KEYWORD.getValue())) {
+            return true;
+        }
+        
+        // The lookup lexer is at the opening parenthesis
+        int depth = 0;
+        int tokensInParentheses = 0;
+        while (lookupLexer.getTokenType() != null) {
+            IElementType type = lookupLexer.getTokenType();
+            lookupLexer.advance();
             
-            if (editor.getJavaEditor().isEditorInputReadOnly()) {
-                return editor.getParsedFile();
+            if (type == KtTokens.LPAR) {
+                depth++;
+            } else if (type == KtTokens.RPAR && --depth == 0) {
+                break;
+            } else if (!IGNORED_FOR_LOOKUP.contains(type)) {
+                tokensInParentheses++;
             }
-        } 
+        }
         
-        return createKtFile(getAnyKotlinEnvironmentForSourceFile(), "dummy.kt");
+        // Getter may have neither body nor type
+        if (name.equals(KtTokens.GET_KEYWORD.getValue()) && tokensInParentheses == 0) {
+            return true;
+        }
+        
+        IElementType typeAfterParentheses = skipIgnoredTokens();
+        return typeAfterParentheses != null && DECLARATION_BODY_STARTS.contains(typeAfterParentheses);
     }
     
-    private KtFile createKtFile(@Nullable KotlinCommonEnvironment environment, String fileName) {
-        if (environment == null) {
-            return null;
+    private static boolean isTagWithSubject(@Nullable String tagName) {
+        if (tagName == null) {
+            return false;
         }
         
-        return KotlinFormatterKt.createKtFile(document.get(), new KtPsiFactory(environment.getProject()), fileName);
+        KDocKnownTag tag = KDocKnownTag.Companion.findByTagName(tagName);
+        return tag != null && tag.isReferenceRequired();
+    }
+    
+    @NotNull
+    private static Set<String> keywordValues(@NotNull TokenSet keywords) {
+        Set<String> values = new HashSet<>();
+        for (IElementType keyword : keywords.getTypes()) {
+            if (keyword instanceof KtKeywordToken) {
+                values.add(((KtKeywordToken) keyword).getValue());
+            }
+        }
+        
+        return values;
     }
     
     @Nullable
-    private static KotlinEnvironment getAnyKotlinEnvironmentForSourceFile() {
-        IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
-        for (IProject project : projects) {
-            if (project.isAccessible() && KotlinNature.Companion.hasKotlinNature(project)) {
-                return KotlinEnvironment.Companion.getEnvironment(project);
+    private IElementType findNextSignificantType() {
+        lookupLexer.start(text, lexer.getTokenEnd(), text.length(), lexer.getState());
+        return skipIgnoredTokens();
+    }
+    
+    @Nullable
+    private IElementType skipIgnoredTokens() {
+        lineBreakBeforeNextType = false;
+        while (lookupLexer.getTokenType() != null && IGNORED_FOR_LOOKUP.contains(lookupLexer.getTokenType())) {
+            int lineBreak = text.indexOf('\n', lookupLexer.getTokenStart());
+            if (lineBreak >= 0 && lineBreak < lookupLexer.getTokenEnd()) {
+                lineBreakBeforeNextType = true;
             }
+            lookupLexer.advance();
         }
         
-        return null;
+        return lookupLexer.getTokenType();
+    }
+    
+    private void updateText(@NotNull IDocument document) {
+        String newText = StringUtilRt.convertLineSeparators(document.get());
+        
+        if (document != checkpointsDocument) {
+            checkpointsDocument = document;
+            checkpoints.clear();
+        } else {
+            int changedOffset = commonPrefixLength(text, newText);
+            while (!checkpoints.isEmpty() && checkpoints.get(checkpoints.size() - 1).offset >= changedOffset) {
+                checkpoints.remove(checkpoints.size() - 1);
+            }
+        }
+        
+        if (checkpoints.isEmpty()) {
+            checkpoints.add(new Checkpoint(0, null));
+        }
+        
+        text = newText;
+    }
+    
+    @NotNull
+    private Checkpoint findCheckpoint(int offset) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (checkpoints.get(middle).offset <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        
+        return checkpoints.get(low);
+    }
+    
+    private static int commonPrefixLength(@NotNull String first, @NotNull String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i)) {
+                return i;
+            }
+        }
+        
+        return length;
+    }
+    
+    private static class Checkpoint {
+        final int offset;
+        @Nullable final IElementType previousSignificantType;
+        
+        Checkpoint(int offset, @Nullable IElementType previousSignificantType) {
+            this.offset = offset;
+            this.previousSignificantType = previousSignificantType;
+        }
     }
 }
@@ -7,6 +7,7 @@ import org.eclipse.swt.SWT
 import com.intellij.psi.impl.source.tree.LeafPsiElement
 import org.jetbrains.kotlin.lexer.KtTokens
 import com.intellij.psi.PsiElement
+import com.intellij.psi.tree.IElementType
 import org.eclipse.jface.preference.PreferenceConverter
 import org.eclipse.jface.preference.IPreferenceStore
 import org.eclipse.jdt.ui.PreferenceConstants
@@ -26,7 +27,10 @@ class KotlinTokensFactory(val preferenceStore: IPreferenceStore, val colorManage
     fun getToken(leafElement: PsiElement): IToken {
         if (leafElement !is LeafPsiElement) return Token.UNDEFINED
 
-        val elementType = leafElement.getElementType()
+        return getToken(leafElement.getElementType())
+    }
+
+    fun getToken(elementType: IElementType): IToken {
         return when {
             elementType in KtTokens.KEYWORDS ||
             elementType in KtTokens.SOFT_KEYWORDS ||
@@ -26,15 +26,16 @@ import org.jetbrains.kotlin.ui.editors.KotlinEditor
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
 import org.jetbrains.kotlin.ui.editors.KotlinReconcilingListener
-import org.eclipse.core.resources.IFile
+import org.jetbrains.kotlin.ui.editors.KotlinReconcileSnapshot
+import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
 import org.eclipse.swt.widgets.Display
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage
 import org.jetbrains.kotlin.ui.editors.KotlinReconcilingStrategy
 
 class KotlinOutlinePage(val editor: KotlinEditor) : ContentOutlinePage(), KotlinReconcilingListener {
-    override fun reconcile(file: IFile, editor: KotlinEditor) {
-        Display.getDefault().asyncExec { refresh() }
+    override fun reconcile(snapshot: KotlinReconcileSnapshot, editor: KotlinEditor) {
+        Display.getDefault().asyncExec { refresh(snapshot.ktFile) }
     }
     
     override fun createControl(parent: Composite?) {
@@ -59,18 +60,17 @@ class KotlinOutlinePage(val editor: KotlinEditor) : ContentOutlinePage(), Kotlin
         }
     }
     
-    private fun setInputAndExpand() {
+    private fun setInputAndExpand(psiFile: KtFile? = editor.parsedFile) {
         with(getTreeViewer()) {
-            val psiFile = editor.parsedFile
             setInput(psiFile)
             expandAll()
         }
     }
     
-    private fun refresh() {
+    private fun refresh(psiFile: KtFile?) {
         getTreeViewer()?.let {
             if (!it.getControl().isDisposed()) {
-                setInputAndExpand()
+                setInputAndExpand(psiFile)
             }
         }
     }
@@ -26,6 +26,31 @@ internal fun IMarker.addDiagnostics(diagnostic: Diagnostic) {
     annotationCode = hashCode
 }
 
+// Markers which are kept between builds get new diagnostics without changing their attributes
+internal fun IFile.setMarkersDiagnostics(diagnostics: Map<IMarker, Diagnostic>) {
+    val mapping = hashMapOf<Int, Diagnostic>()
+    val newMarkers = arrayListOf<IMarker>()
+    for ((marker, diagnostic) in diagnostics) {
+        val code = marker.annotationCode
+        if (code != null && code !in mapping) {
+            mapping[code] = diagnostic
+        } else {
+            newMarkers.add(marker)
+        }
+    }
+
+    for (marker in newMarkers) {
+        val diagnostic = diagnostics.getValue(marker)
+        var code = diagnostic.hashCode()
+        while (code in mapping) code++
+
+        mapping[code] = diagnostic
+        marker.annotationCode = code
+    }
+
+    resourceDiagnosticsMapping[this] = mapping
+}
+
 internal fun IFile.removeMarkers() {
     deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)
     resourceDiagnosticsMapping.remove(this)
@@ -36,30 +36,21 @@ import org.eclipse.jdt.ui.search.ISearchRequestor
 import org.eclipse.jdt.ui.search.QuerySpecification
 import org.eclipse.jface.resource.ImageDescriptor
 import org.eclipse.jface.util.SafeRunnable
-import org.eclipse.search.internal.ui.text.FileSearchResult
-import org.eclipse.search.ui.ISearchResult
-import org.eclipse.search.ui.text.FileTextSearchScope
 import org.eclipse.search.ui.text.Match
-import org.eclipse.search.ui.text.TextSearchQueryProvider.TextSearchInput
-import org.eclipse.search2.internal.ui.text2.DefaultTextSearchQueryProvider
 import org.eclipse.ui.model.IWorkbenchAdapter
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinIdentifierIndex
 import org.jetbrains.kotlin.core.model.sourceElementsToLightElements
 import org.jetbrains.kotlin.core.references.resolveToSourceDeclaration
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaElementUtil
 import org.jetbrains.kotlin.descriptors.FunctionDescriptor
 import org.jetbrains.kotlin.descriptors.SourceElement
-import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
-import org.jetbrains.kotlin.eclipse.ui.utils.findElementByDocumentOffset
 import org.jetbrains.kotlin.idea.caches.resolve.resolveToDescriptorIfAny
-import org.jetbrains.kotlin.lexer.KtSingleValueToken
 import org.jetbrains.kotlin.lexer.KtTokens
-import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.*
 import org.jetbrains.kotlin.psi.psiUtil.getParentOfType
 import org.jetbrains.kotlin.resolve.source.KotlinSourceElement
-import org.jetbrains.kotlin.types.expressions.OperatorConventions
 import org.jetbrains.kotlin.ui.commands.findReferences.*
 
 class KotlinQueryParticipant : IQueryParticipant {
@@ -118,19 +109,19 @@ class KotlinQueryParticipant : IQueryParticipant {
 
                 // We assume that there is only one search element, it could be IJavaElement or KtElement
                 val searchElement = searchElements.first()
-                val searchResult = searchTextOccurrences(searchElement, kotlinFiles) ?: return
+                val occurrences = findOccurrences(searchElement, kotlinFiles) ?: return
                 if (monitor?.isCanceled == true) return
 
-                val elements = obtainElements(searchResult as FileSearchResult, kotlinFiles).flatMap {
+                val elements = obtainElements(occurrences).flatMap {
                     val tempImportAlias = it.getParentOfType<KtImportDirective>(false)?.alias
 
                     if (tempImportAlias != null) {
                         val tempEclipseFile = KotlinPsiManager.getEclipseFile(tempImportAlias.containingKtFile)!!
-                        val tempResult = searchTextOccurrences(
+                        val tempOccurrences = findOccurrences(
                             SearchElement.KotlinSearchElement(tempImportAlias),
                             listOf(tempEclipseFile)
-                        )
-                        return@flatMap obtainElements(tempResult as FileSearchResult, listOf(tempEclipseFile)) + it
+                        ).orEmpty()
+                        return@flatMap obtainElements(tempOccurrences) + it
                     }
 
                     listOf(it)
@@ -243,64 +234,23 @@ class KotlinQueryParticipant : IQueryParticipant {
         }
     }
 
-    private fun searchTextOccurrences(searchElement: SearchElement, filesScope: List<IFile>): ISearchResult? {
-        var searchText = searchElement.getSearchText() ?: return null
-        var asRegex = false
+    private fun findOccurrences(searchElement: SearchElement, filesScope: List<IFile>): Map<IFile, IntArray>? {
+        val searchText = searchElement.getSearchText() ?: return null
+        var withOperators = false
 
         if (searchElement is SearchElement.KotlinSearchElement) {
             if (searchElement.kotlinElement is KtFunction) {
                 //Either it has an operator keyword directly, or it overrides something. In this case we could look in the overridden element, or we could just try to search for it!
                 if (searchElement.kotlinElement.hasModifier(KtTokens.OPERATOR_KEYWORD)) {
-                    val pair = getSearchTextAsRegex(searchText)
-                    asRegex = pair.first
-                    searchText = pair.second
+                    withOperators = true
                 } else if (searchElement.kotlinElement.hasModifier(KtTokens.OVERRIDE_KEYWORD)) {
                     val tempDescriptor = searchElement.kotlinElement.resolveToDescriptorIfAny() as? FunctionDescriptor
-                    if (tempDescriptor?.isOperator == true) {
-                        val pair = getSearchTextAsRegex(searchText)
-                        asRegex = pair.first
-                        searchText = pair.second
-                    }
+                    withOperators = tempDescriptor?.isOperator == true
                 }
             }
         }
 
-        val scope = FileTextSearchScope.newSearchScope(filesScope.toTypedArray(), null as Array<String?>?, false)
-
-        val query = DefaultTextSearchQueryProvider().createQuery(object : TextSearchInput() {
-            override fun isWholeWordSearch(): Boolean = !asRegex
-
-            override fun getSearchText(): String = searchText
-
-            override fun isCaseSensitiveSearch(): Boolean = true
-
-            override fun isRegExSearch(): Boolean = asRegex
-
-            override fun getScope(): FileTextSearchScope = scope
-        })
-
-        query.run(null)
-
-        return query.searchResult
-    }
-
-    private fun getSearchTextAsRegex(
-        searchText: String
-    ): Pair<Boolean, String> {
-        val tempOperationSymbol =
-            (OperatorConventions.getOperationSymbolForName(Name.identifier(searchText)) as? KtSingleValueToken)?.value?.let { "\\Q$it\\E" }
-                ?: when (searchText) {
-                    "get" -> "\\[.*?]"
-                    "set" -> "\\[.*?]\\s*?="
-                    "invoke" -> "\\(.*?\\)"
-                    "contains" -> "in|!in"
-                    "getValue", "setValue", "provideDelegate" -> "by"
-                    else -> null
-                }
-        if (tempOperationSymbol != null) {
-            return Pair(true, "(\\b$searchText\\b|$tempOperationSymbol)")
-        }
-        return Pair(false, searchText)
+        return KotlinIdentifierIndex.findOccurrences(searchText, filesScope, withOperators)
     }
 
     private fun resolveElementsAndMatch(
@@ -340,16 +290,14 @@ class KotlinQueryParticipant : IQueryParticipant {
         }
     }
 
-    private fun obtainElements(searchResult: FileSearchResult, files: List<IFile>): List<KtElement> {
+    private fun obtainElements(occurrences: Map<IFile, IntArray>): List<KtElement> {
         val elements = ArrayList<KtElement>()
-        for (file in files) {
-            val matches = searchResult.getMatches(file)
+        for ((file, offsets) in occurrences) {
             val jetFile = KotlinPsiManager.getParsedFile(file)
-            val document = EditorUtil.getDocument(file)
 
-            matches
-                .map { match ->
-                    val element = jetFile.findElementByDocumentOffset(match.offset, document)
+            offsets
+                .map { offset ->
+                    val element = jetFile.findElementAt(offset)
                     element?.let { PsiTreeUtil.getNonStrictParentOfType(it, KtElement::class.java) }
                 }
                 .filterNotNullTo(elements)